@@ -1,6 +1,12 @@
 -- =============================================
 --   PharmacyFM - Schema de base de datos
 --   SQLite
+--
+--   Esquema inicial (versión 0) con datos de ejemplo.
+--   No es el esquema actual: fechas y estados aún son texto y faltan
+--   índices, triggers y tablas de resumen. Al abrir la base de datos,
+--   Database.java ejecuta SchemaMigrations, que la lleva a la última versión.
+--   El esquema vigente es el de Database.java más las migraciones.
 -- =============================================
 
 PRAGMA foreign_keys = ON;
@@ -40,6 +46,7 @@ CREATE TABLE IF NOT EXISTS pedidos (
     id_formula           INTEGER,           -- NULL si es fórmula personalizada
     formula_personalizada TEXT,             -- NULL si es fórmula del catálogo
     cantidad             INTEGER NOT NULL,
+    unidad               TEXT,
     observaciones        TEXT,
     fecha                TEXT NOT NULL,
     estado               TEXT NOT NULL,     -- pendiente, en preparación, listo, entregado, cancelado
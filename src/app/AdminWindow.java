@@ -1,19 +1,32 @@
 package app;
 
-import app.repository.PacienteRepository;
+import app.service.CambioDatos;
+import app.service.EventBus;
+import app.service.ExportadorPedidos;
 import app.service.FormulaService;
+import app.service.ImportadorPacientes;
+import app.service.ImportadorPedidos;
+import app.service.PacienteService;
 import app.service.PedidoService;
 
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.DatePicker;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
@@ -23,15 +36,34 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
 public class AdminWindow {
 
     // Inicialización de servicios y repositorios para la gestión de datos
     private static final FormulaService formulaService         = new FormulaService();
     private static final PedidoService pedidoService           = new PedidoService();
-    private static final PacienteRepository pacienteRepository = new PacienteRepository();
+    private static final PacienteService pacienteService       = new PacienteService();
+
+    // Suscripciones al bus de eventos de la ventana abierta; se cancelan al cerrar sesión
+    private static final List<EventBus.Suscripcion> suscripciones = new ArrayList<>();
+
+    // Máximo de resultados de los buscadores de texto
+    private static final int LIMITE_BUSQUEDA = 200;
 
     // Método para cargar la hoja de estilos personalizada
     private static String getCss() {
@@ -41,6 +73,7 @@ public class AdminWindow {
     // Configuración y despliegue de la ventana principal del administrador
     public static void show(Stage stage, User user) {
 
+        cancelarSuscripciones();
         BorderPane root = new BorderPane();
 
         // ---- Barra superior con saludo y cierre de sesión ----
@@ -49,7 +82,10 @@ public class AdminWindow {
 
         Button btnLogout = new Button("Cerrar sesión");
         btnLogout.getStyleClass().add("btn-logout");
-        btnLogout.setOnAction(_ -> LoginScreen.show(stage));
+        btnLogout.setOnAction(_ -> {
+            cancelarSuscripciones();
+            LoginScreen.show(stage);
+        });
 
         // Espaciador para empujar el botón de logout a la derecha
         Region spacer = new Region();
@@ -78,7 +114,12 @@ public class AdminWindow {
         tabPacientes.setClosable(false);
         tabPacientes.setContent(createPacientesContent());
 
-        tabs.getTabs().addAll(tabPedidos, tabFormulas, tabPacientes);
+        // Pestaña de Informes
+        javafx.scene.control.Tab tabInformes = new javafx.scene.control.Tab("Informes");
+        tabInformes.setClosable(false);
+        tabInformes.setContent(createInformesContent());
+
+        tabs.getTabs().addAll(tabPedidos, tabFormulas, tabPacientes, tabInformes);
         root.setCenter(tabs);
 
         // Visualización de la escena principal
@@ -89,6 +130,16 @@ public class AdminWindow {
         stage.show();
     }
 
+    // Registra un oyente del bus ligado a la vida de esta ventana
+    private static void suscribir(CambioDatos.Entidad entidad, Consumer<CambioDatos> oyente) {
+        suscripciones.add(EventBus.getInstance().suscribir(entidad, oyente));
+    }
+
+    private static void cancelarSuscripciones() {
+        suscripciones.forEach(EventBus.Suscripcion::cancelar);
+        suscripciones.clear();
+    }
+
     // ============================================================
     // SECCIÓN: GESTIÓN DE PEDIDOS
     // ============================================================
@@ -106,6 +157,7 @@ public class AdminWindow {
 
         TableColumn<Pedido, String> colFecha = new TableColumn<>("Fecha");
         colFecha.setCellValueFactory(new PropertyValueFactory<>("fecha"));
+        colFecha.setSortType(TableColumn.SortType.DESCENDING);
 
         TableColumn<Pedido, String> colPaciente = new TableColumn<>("Paciente");
         colPaciente.setCellValueFactory(new PropertyValueFactory<>("nombrePaciente"));
@@ -116,7 +168,7 @@ public class AdminWindow {
         TableColumn<Pedido, String> colCant = new TableColumn<>("Cantidad");
         colCant.setCellValueFactory(new PropertyValueFactory<>("cantidadConUnidad"));
 
-        TableColumn<Pedido, String> colEstado = new TableColumn<>("Estado");
+        TableColumn<Pedido, EstadoPedido> colEstado = new TableColumn<>("Estado");
         colEstado.setCellValueFactory(new PropertyValueFactory<>("estado"));
 
         TableColumn<Pedido, String> colObs = new TableColumn<>("Observaciones");
@@ -129,46 +181,324 @@ public class AdminWindow {
         table.getColumns().add(colEstado);
         table.getColumns().add(colObs);
 
-        // Carga inicial de datos en la tabla
-        ObservableList<Pedido> data = FXCollections.observableArrayList();
-        cargarPedidos(data);
+        // Solo se puede ordenar por fecha, y la ordenación la resuelve la base de datos
+        colPaciente.setSortable(false);
+        colFormula.setSortable(false);
+        colCant.setSortable(false);
+        colEstado.setSortable(false);
+        colObs.setSortable(false);
+
+        // Modelo paginado: la tabla solo carga las páginas de pedidos que se van mostrando
+        PedidosLazyList data = new PedidosLazyList(pedidoService);
         table.setItems(data);
 
+        // Mientras se recuenta la lista se muestra un indicador de carga en lugar de la tabla vacía
+        Label sinPedidos = new Label("No hay pedidos.");
+        table.setPlaceholder(BackgroundLoader.crearIndicador("Cargando pedidos..."));
+        data.recontandoProperty().addListener((_, _, recontando) ->
+                table.setPlaceholder(recontando ? BackgroundLoader.crearIndicador("Cargando pedidos...") : sinPedidos));
+        // Selección múltiple (Ctrl/Mayús) para cambiar el estado de muchos pedidos a la vez
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        table.getSortOrder().add(colFecha);
+        table.setSortPolicy(_ -> {
+            data.setAscendente(colFecha.getSortType() == TableColumn.SortType.ASCENDING);
+            return true;
+        });
+
+        // Búsqueda de texto completo; con el campo vacío la tabla vuelve al listado paginado
+        TextField txtBuscar = new TextField();
+        txtBuscar.setPromptText("Buscar en observaciones y fórmulas personalizadas...");
+        txtBuscar.textProperty().addListener((_, _, _) -> buscarPedidos(table, data, txtBuscar));
+
+        // Cualquier alta o cambio de estado (de esta ventana, de otra o de otro terminal que use
+        // la misma base de datos) se aplica como refresco incremental
+        suscribir(CambioDatos.Entidad.PEDIDO, _ -> BackgroundLoader.onFxThread(() -> {
+            cargarPedidos(data);
+            if (!txtBuscar.getText().isBlank()) {
+                buscarPedidos(table, data, txtBuscar);
+            }
+        }));
+
         // Botones de control para la sección de pedidos
         Button btnActualizarEstado = new Button("Cambiar estado");
         btnActualizarEstado.getStyleClass().add("btn-primary");
 
-        Button btnRecargar = new Button("Actualizar");
-        btnRecargar.getStyleClass().add("btn-secondary");
+        Button btnEntregados = new Button("Marcar como entregados");
+        btnEntregados.getStyleClass().add("btn-secondary");
 
-        btnActualizarEstado.setOnAction(_ -> mostrarCambiarEstadoDialog(table, data));
-        btnRecargar.setOnAction(_ -> cargarPedidos(data));
+        btnActualizarEstado.setOnAction(_ -> mostrarCambiarEstadoDialog(table));
+        btnEntregados.setOnAction(_ -> {
+            List<Integer> ids = idsSeleccionados(table);
+            if (ids != null) {
+                guardarEstados(ids, EstadoPedido.ENTREGADO, _ -> { });
+            }
+        });
 
-        HBox botones = new HBox(10, btnActualizarEstado, btnRecargar);
+        Button btnImportar = new Button("Importar CSV...");
+        btnImportar.getStyleClass().add("btn-secondary");
+        Label lblImportacion = new Label();
+        btnImportar.setOnAction(_ -> importarCsv(btnImportar, lblImportacion, "Importar pedidos desde CSV",
+                (csv, informe, alAvanzar) -> {
+                    ImportadorPedidos.Progreso fin = new ImportadorPedidos().importar(csv, informe,
+                            progreso -> alAvanzar.accept(progreso.toString()));
+                    return fin.errores() > 0;
+                }));
+
+        Button btnExportar = new Button("Exportar...");
+        btnExportar.getStyleClass().add("btn-secondary");
+        btnExportar.setOnAction(_ -> mostrarDialogExportar(btnExportar, lblImportacion));
+
+        HBox botones = new HBox(10, btnActualizarEstado, btnEntregados, btnImportar, btnExportar, lblImportacion);
         botones.setAlignment(Pos.CENTER_LEFT);
 
-        root.getChildren().addAll(title, table, botones);
+        root.getChildren().addAll(title, crearResumenPedidos(), crearFiltrosPedidos(data), txtBuscar, table, botones);
         VBox.setVgrow(table, Priority.ALWAYS);
 
         return root;
     }
+
+    /**
+     * Cabecera con la carga de trabajo: pedidos en cada estado, en total y de hoy.
+     * Lee los contadores que mantienen los triggers, así que se puede refrescar con cada cambio de pedidos.
+     */
+    private static HBox crearResumenPedidos() {
+        HBox resumen = new HBox(20);
+        resumen.setAlignment(Pos.CENTER_LEFT);
+
+        List<Label> etiquetas = new ArrayList<>();
+        for (EstadoPedido estado : PedidoService.ESTADOS) {
+            Label lbl = new Label(estado + ": -");
+            lbl.setStyle("-fx-font-weight: bold;");
+            etiquetas.add(lbl);
+        }
+        Label lblTotal = new Label("Total: -");
+        resumen.getChildren().addAll(etiquetas);
+        resumen.getChildren().add(lblTotal);
+
+        Runnable cargar = () -> BackgroundLoader.load(pedidoService::getResumenPedidos, r -> {
+            if (r == null) {
+                return;
+            }
+            for (int i = 0; i < etiquetas.size(); i++) {
+                EstadoPedido estado = PedidoService.ESTADOS.get(i);
+                etiquetas.get(i).setText(estado + ": " + r.total(estado) + " (hoy " + r.delDia(estado) + ")");
+            }
+            lblTotal.setText("Total: " + r.total());
+        });
+        cargar.run();
+        suscribir(CambioDatos.Entidad.PEDIDO, _ -> BackgroundLoader.onFxThread(cargar));
+
+        return resumen;
+    }
+
+    /**
+     * Barra de filtros del listado de pedidos. Cada cambio se traduce en un PedidoFiltro que la lista
+     * paginada resuelve en la propia consulta SQL, así que solo se cuentan y cargan los pedidos que cumplen.
+     */
+    private static HBox crearFiltrosPedidos(PedidosLazyList data) {
+        ComboBox<String> cbEstado = crearComboEstados();
+
+        DatePicker dpDesde = new DatePicker();
+        dpDesde.setPromptText("Desde");
+        dpDesde.setPrefWidth(130);
+        DatePicker dpHasta = new DatePicker();
+        dpHasta.setPromptText("Hasta");
+        dpHasta.setPrefWidth(130);
+
+        ComboBox<String> cbTipo = new ComboBox<>();
+        cbTipo.getItems().addAll("Todas las fórmulas", "Catálogo", "Personalizadas");
+        cbTipo.setValue("Todas las fórmulas");
+
+        // Sin valor seleccionado no se filtra por fórmula
+        ComboBox<Formula> cbFormula = new ComboBox<>();
+        cbFormula.setPromptText("Cualquier fórmula");
+        cbFormula.setPrefWidth(170);
+        BackgroundLoader.load(formulaService::getAllFormulas, cbFormula.getItems()::setAll);
+
+        // El paciente se elige entre las sugerencias del directorio en memoria mientras se escribe
+        TextField txtPaciente = new TextField();
+        txtPaciente.setPromptText("Paciente");
+        ObjectProperty<Paciente> paciente = new SimpleObjectProperty<>();
+        ContextMenu sugerencias = new ContextMenu();
+        txtPaciente.textProperty().addListener((_, _, texto) -> {
+            Paciente actual = paciente.get();
+            if (actual != null && !actual.getNombre().equals(texto)) {
+                paciente.set(null);
+            }
+            sugerirPacientes(txtPaciente, sugerencias, paciente);
+        });
+
+        Runnable aplicar = () -> {
+            boolean personalizadas = "Personalizadas".equals(cbTipo.getValue());
+            // Una fórmula del catálogo y "solo personalizadas" se excluyen entre sí
+            cbFormula.setDisable(personalizadas);
+            Formula formula = personalizadas ? null : cbFormula.getValue();
+            data.setFiltro(PedidoFiltro.TODOS
+                    .conEstados(estadosElegidos(cbEstado))
+                    .entre(dpDesde.getValue(), dpHasta.getValue())
+                    .delPaciente(paciente.get() == null ? null : paciente.get().getId())
+                    .deFormula(formula == null ? null : formula.getId())
+                    .soloPersonalizadas(switch (cbTipo.getValue()) {
+                        case "Catálogo" -> false;
+                        case "Personalizadas" -> true;
+                        default -> null;
+                    }));
+        };
+        cbEstado.valueProperty().addListener((_, _, _) -> aplicar.run());
+        dpDesde.valueProperty().addListener((_, _, _) -> aplicar.run());
+        dpHasta.valueProperty().addListener((_, _, _) -> aplicar.run());
+        cbTipo.valueProperty().addListener((_, _, _) -> aplicar.run());
+        cbFormula.valueProperty().addListener((_, _, _) -> aplicar.run());
+        paciente.addListener((_, _, _) -> aplicar.run());
+
+        Button btnLimpiar = new Button("Limpiar filtros");
+        btnLimpiar.getStyleClass().add("btn-secondary");
+        btnLimpiar.setOnAction(_ -> {
+            cbEstado.setValue("Todos");
+            dpDesde.setValue(null);
+            dpHasta.setValue(null);
+            cbTipo.setValue("Todas las fórmulas");
+            cbFormula.setValue(null);
+            txtPaciente.clear();
+        });
+
+        HBox filtros = new HBox(8, cbEstado, dpDesde, dpHasta, cbTipo, cbFormula, txtPaciente, btnLimpiar);
+        filtros.setAlignment(Pos.CENTER_LEFT);
+        return filtros;
+    }
+
+    // Lista de estados para filtrar, con "Todos" como primera opción
+    private static ComboBox<String> crearComboEstados() {
+        ComboBox<String> cbEstado = new ComboBox<>();
+        cbEstado.getItems().add("Todos");
+        PedidoService.ESTADOS.forEach(e -> cbEstado.getItems().add(e.etiqueta()));
+        cbEstado.setValue("Todos");
+        return cbEstado;
+    }
+
+    private static Set<EstadoPedido> estadosElegidos(ComboBox<String> cbEstado) {
+        return "Todos".equals(cbEstado.getValue()) ? Set.of() : Set.of(EstadoPedido.deEtiqueta(cbEstado.getValue()));
+    }
+
+    // Con texto, la tabla muestra los resultados de la búsqueda; sin texto, vuelve al listado paginado
+    private static void buscarPedidos(TableView<Pedido> table, PedidosLazyList data, TextField txtBuscar) {
+        String texto = txtBuscar.getText();
+        if (texto.isBlank()) {
+            table.setItems(data);
+            return;
+        }
+        BackgroundLoader.load(table, () -> pedidoService.buscarPedidos(texto, LIMITE_BUSQUEDA), resultados -> {
+            // Se descartan las respuestas de búsquedas que el usuario ya ha seguido escribiendo
+            if (texto.equals(txtBuscar.getText())) {
+                table.setItems(FXCollections.observableArrayList(resultados));
+            }
+        });
+    }
     
-    // Abre un diálogo modal para modificar el estado del pedido seleccionado
-    private static void mostrarCambiarEstadoDialog(TableView<Pedido> table, ObservableList<Pedido> data) {
-        Pedido selected = table.getSelectionModel().getSelectedItem();
-        if (selected == null) {
-            mostrarAlerta("Selecciona un pedido.");
+    /**
+     * Importación desde un CSV: recibe el archivo, el informe de errores y dónde publicar el avance,
+     * y devuelve si hubo filas rechazadas.
+     */
+    @FunctionalInterface
+    private interface ImportacionCsv {
+        boolean importar(Path csv, Path informe, Consumer<String> alAvanzar) throws IOException;
+    }
+
+    // Lanza una importación CSV en segundo plano, mostrando el avance junto al botón
+    private static void importarCsv(Button btnImportar, Label lblEstado, String titulo, ImportacionCsv importacion) {
+        FileChooser selector = new FileChooser();
+        selector.setTitle(titulo);
+        selector.getExtensionFilters().add(new FileChooser.ExtensionFilter("Archivos CSV", "*.csv"));
+        File archivo = selector.showOpenDialog(btnImportar.getScene().getWindow());
+        if (archivo == null) {
+            return;
+        }
+        File informe = new File(archivo.getPath() + ".errores.csv");
+
+        btnImportar.setDisable(true);
+        lblEstado.setText("Importando...");
+        BackgroundLoader.run(() -> {
+            try {
+                boolean conErrores = importacion.importar(archivo.toPath(), informe.toPath(),
+                        progreso -> BackgroundLoader.onFxThread(() -> lblEstado.setText(progreso)));
+                BackgroundLoader.onFxThread(() -> {
+                    btnImportar.setDisable(false);
+                    mostrarAlerta("Importación terminada: " + lblEstado.getText() + "."
+                            + (conErrores ? "\nFilas rechazadas en " + informe.getAbsolutePath() : ""));
+                });
+            } catch (Exception e) {
+                System.err.println("Error importando " + archivo + ":");
+                e.printStackTrace();
+                BackgroundLoader.onFxThread(() -> {
+                    btnImportar.setDisable(false);
+                    lblEstado.setText("");
+                    mostrarAlerta("No se pudo importar el archivo: " + e.getMessage());
+                });
+            }
+        });
+    }
+
+    // Ids de los pedidos seleccionados, o null (tras avisar) si no hay selección o aún no está cargada
+    private static List<Integer> idsSeleccionados(TableView<Pedido> table) {
+        List<Pedido> seleccionados = table.getSelectionModel().getSelectedItems().stream()
+                .filter(Objects::nonNull).toList();
+        if (table.getSelectionModel().getSelectedIndices().isEmpty()) {
+            mostrarAlerta("Selecciona al menos un pedido.");
+            return null;
+        }
+        // Con la tabla paginada, una selección muy amplia puede incluir filas cuya página no está cargada
+        if (seleccionados.size() != table.getSelectionModel().getSelectedIndices().size()) {
+            mostrarAlerta("Algunos pedidos seleccionados se están cargando todavía. Inténtalo de nuevo en un momento.");
+            return null;
+        }
+        return seleccionados.stream().map(Pedido::getId).toList();
+    }
+
+    // Guarda el nuevo estado de los pedidos en una sola transacción; las filas se refrescan por el bus
+    private static void guardarEstados(List<Integer> ids, EstadoPedido nuevoEstado, Consumer<Boolean> alTerminar) {
+        pedidoService.actualizarEstadosAsync(ids, nuevoEstado).thenAccept(n -> BackgroundLoader.onFxThread(() -> {
+            if (n < 0) {
+                mostrarAlerta("Error guardando el estado.");
+            } else if (n < ids.size()) {
+                // El servicio deja como están los pedidos cuyo estado actual no permite el cambio
+                mostrarAlerta("Estado actualizado en " + n + " de " + ids.size() + " pedidos. Los demás no pueden pasar a '"
+                        + nuevoEstado + "' desde su estado actual.");
+            } else {
+                mostrarAlerta(n == 1 ? "Estado actualizado." : "Estado actualizado en " + n + " pedidos.");
+            }
+            alTerminar.accept(n >= 0);
+        }));
+    }
+
+    // Abre un diálogo modal para modificar el estado de los pedidos seleccionados
+    private static void mostrarCambiarEstadoDialog(TableView<Pedido> table) {
+        List<Integer> ids = idsSeleccionados(table);
+        if (ids == null) {
             return;
         }
 
         Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
-        dialog.setTitle("Cambiar estado del pedido");
+        dialog.setTitle(ids.size() == 1 ? "Cambiar estado del pedido" : "Cambiar estado de " + ids.size() + " pedidos");
 
-        ComboBox<String> cbEstado = new ComboBox<>();
+        // Solo se ofrecen los estados a los que pueden pasar todos los pedidos seleccionados
+        Set<EstadoPedido> posibles = EnumSet.allOf(EstadoPedido.class);
+        for (Pedido p : table.getSelectionModel().getSelectedItems()) {
+            if (p != null) {
+                posibles.retainAll(p.getEstado().siguientes());
+            }
+        }
+        if (posibles.isEmpty()) {
+            mostrarAlerta(ids.size() == 1
+                    ? "El pedido está en un estado final y ya no puede cambiar."
+                    : "Los pedidos seleccionados no tienen ningún cambio de estado en común.");
+            return;
+        }
+
+        ComboBox<EstadoPedido> cbEstado = new ComboBox<>();
         cbEstado.setMaxWidth(Double.MAX_VALUE);
-        cbEstado.getItems().addAll("Pendiente", "En preparación", "Listo", "Entregado", "Cancelado");
-        cbEstado.setValue(selected.getEstado());
+        cbEstado.getItems().addAll(posibles);
+        cbEstado.setValue(cbEstado.getItems().get(0));
 
         Button btnGuardar  = new Button("Guardar");
         btnGuardar.getStyleClass().add("btn-primary");
@@ -176,17 +506,16 @@ public class AdminWindow {
         Button btnCancelar = new Button("Cancelar");
         btnCancelar.getStyleClass().add("btn-secondary");
 
-        // Acción de guardado y refresco de la tabla
+        // Acción de guardado; la escritura se hace en segundo plano y la tabla se actualiza sola con el evento
         btnGuardar.setOnAction(event -> {
             if (event == null) return;
-            boolean ok = pedidoService.actualizarEstado(selected.getId(), cbEstado.getValue());
-            if (ok) {
-                mostrarAlerta("Estado actualizado.");
-                cargarPedidos(data);
-                dialog.close();
-            } else {
-                mostrarAlerta("Error guardando el estado.");
-            }
+            btnGuardar.setDisable(true);
+            guardarEstados(ids, cbEstado.getValue(), ok -> {
+                btnGuardar.setDisable(false);
+                if (ok) {
+                    dialog.close();
+                }
+            });
         });
 
         btnCancelar.setOnAction(_ -> dialog.close());
@@ -203,10 +532,96 @@ public class AdminWindow {
         dialog.showAndWait();
     }
 
-    // Refresca la información de pedidos consultando al servicio
-    private static void cargarPedidos(ObservableList<Pedido> data) {
-        data.clear();
-        data.addAll(pedidoService.getAllPedidos());
+    // Diálogo de exportación: filtros de estado y fechas, formato y archivo de destino
+    private static void mostrarDialogExportar(Button btnExportar, Label lblEstado) {
+        Stage dialog = new Stage();
+        dialog.initModality(Modality.APPLICATION_MODAL);
+        dialog.setTitle("Exportar pedidos");
+
+        ComboBox<String> cbEstado = crearComboEstados();
+        cbEstado.setMaxWidth(Double.MAX_VALUE);
+
+        DatePicker dpDesde = new DatePicker();
+        DatePicker dpHasta = new DatePicker();
+
+        ComboBox<ExportadorPedidos.Formato> cbFormato = new ComboBox<>();
+        cbFormato.setMaxWidth(Double.MAX_VALUE);
+        cbFormato.getItems().addAll(ExportadorPedidos.Formato.values());
+        cbFormato.setValue(ExportadorPedidos.Formato.CSV);
+
+        Button btnConfirmar = new Button("Exportar");
+        btnConfirmar.getStyleClass().add("btn-primary");
+
+        Button btnCancelar = new Button("Cancelar");
+        btnCancelar.getStyleClass().add("btn-secondary");
+
+        btnConfirmar.setOnAction(event -> {
+            if (event == null) return;
+            ExportadorPedidos.Formato formato = cbFormato.getValue();
+            String extension = formato == ExportadorPedidos.Formato.CSV ? "csv" : "jsonl";
+
+            FileChooser selector = new FileChooser();
+            selector.setTitle("Guardar exportación");
+            selector.setInitialFileName("pedidos." + extension);
+            selector.getExtensionFilters().add(new FileChooser.ExtensionFilter(formato.name(), "*." + extension));
+            File destino = selector.showSaveDialog(dialog);
+            if (destino == null) {
+                return;
+            }
+
+            PedidoFiltro filtro = new PedidoFiltro(estadosElegidos(cbEstado), dpDesde.getValue(), dpHasta.getValue());
+            dialog.close();
+            exportarPedidos(btnExportar, lblEstado, filtro, formato, destino);
+        });
+
+        btnCancelar.setOnAction(_ -> dialog.close());
+
+        HBox botones = new HBox(10, btnConfirmar, btnCancelar);
+        botones.setAlignment(Pos.CENTER_RIGHT);
+
+        VBox layout = new VBox(10,
+                new Label("Estado:"), cbEstado,
+                new Label("Desde:"), dpDesde,
+                new Label("Hasta:"), dpHasta,
+                new Label("Formato:"), cbFormato,
+                botones
+        );
+        layout.setPadding(new Insets(15));
+
+        Scene scene = new Scene(layout, 320, 360);
+        scene.getStylesheets().add(getCss());
+        dialog.setScene(scene);
+        dialog.showAndWait();
+    }
+
+    // Ejecuta la exportación en segundo plano, mostrando el avance junto a los botones
+    private static void exportarPedidos(Button btnExportar, Label lblEstado, PedidoFiltro filtro,
+                                        ExportadorPedidos.Formato formato, File destino) {
+        btnExportar.setDisable(true);
+        lblEstado.setText("Exportando...");
+        BackgroundLoader.run(() -> {
+            try {
+                ExportadorPedidos.Progreso fin = new ExportadorPedidos().exportar(filtro, formato, destino.toPath(),
+                        progreso -> BackgroundLoader.onFxThread(() -> lblEstado.setText(progreso.toString())));
+                BackgroundLoader.onFxThread(() -> {
+                    btnExportar.setDisable(false);
+                    mostrarAlerta("Exportación terminada: " + fin + ".\nArchivo: " + destino.getAbsolutePath());
+                });
+            } catch (Exception e) {
+                System.err.println("Error exportando pedidos:");
+                e.printStackTrace();
+                BackgroundLoader.onFxThread(() -> {
+                    btnExportar.setDisable(false);
+                    lblEstado.setText("");
+                    mostrarAlerta("No se pudo exportar: " + e.getMessage());
+                });
+            }
+        });
+    }
+
+    // Refresca la información de pedidos aplicando solo los pedidos nuevos o modificados
+    private static void cargarPedidos(PedidosLazyList data) {
+        data.actualizar();
     }
 
     // ============================================================
@@ -237,8 +652,25 @@ public class AdminWindow {
         table.getColumns().add(colDesc);
         table.getColumns().add(colPrecio);
 
-        ObservableList<Formula> data = FXCollections.observableArrayList(formulaService.getAllFormulas());
+        ObservableList<Formula> data = FXCollections.observableArrayList();
         table.setItems(data);
+        cargarFormulas(table, data);
+
+        TextField txtBuscar = new TextField();
+        txtBuscar.setPromptText("Buscar por nombre o descripción...");
+        txtBuscar.textProperty().addListener((_, _, _) -> buscarFormulas(table, data, txtBuscar));
+
+        // Las altas, ediciones y bajas de fórmulas se aplican fila a fila (y se repite la búsqueda activa)
+        suscribir(CambioDatos.Entidad.FORMULA, cambio -> {
+            BackgroundLoader.cargarCambios(cambio, data,
+                    Formula::getId, id -> formulaService.getFormulaById(id).orElse(null),
+                    formulaService::getAllFormulas, Comparator.comparing(Formula::getNombre));
+            BackgroundLoader.onFxThread(() -> {
+                if (!txtBuscar.getText().isBlank()) {
+                    buscarFormulas(table, data, txtBuscar);
+                }
+            });
+        });
 
         // Botones para operaciones CRUD de fórmulas
         Button btnAdd  = new Button("Añadir");
@@ -250,20 +682,20 @@ public class AdminWindow {
         Button btnDel  = new Button("Eliminar");
         btnDel.getStyleClass().add("btn-secondary");
 
-        btnAdd.setOnAction(_ -> mostrarDialogFormula(null, data));
+        btnAdd.setOnAction(_ -> mostrarDialogFormula(null));
 
         btnEdit.setOnAction(_ -> {
             Formula sel = table.getSelectionModel().getSelectedItem();
-            if (sel != null) mostrarDialogFormula(sel, data);
+            if (sel != null) mostrarDialogFormula(sel);
             else mostrarAlerta("Selecciona una fórmula.");
         });
 
         btnDel.setOnAction(_ -> {
             Formula sel = table.getSelectionModel().getSelectedItem();
             if (sel != null) {
-                boolean ok = formulaService.eliminarFormula(sel.getId());
-                if (ok) data.setAll(formulaService.getAllFormulas());
-                else mostrarAlerta("No se pudo eliminar la fórmula.");
+                BackgroundLoader.load(() -> formulaService.eliminarFormula(sel.getId()), ok -> {
+                    if (!ok) mostrarAlerta("No se pudo eliminar la fórmula.");
+                });
             } else {
                 mostrarAlerta("Selecciona una fórmula.");
             }
@@ -272,14 +704,33 @@ public class AdminWindow {
         HBox botones = new HBox(10, btnAdd, btnEdit, btnDel);
         botones.setAlignment(Pos.CENTER_LEFT);
 
-        root.getChildren().addAll(title, table, botones);
+        root.getChildren().addAll(title, txtBuscar, table, botones);
         VBox.setVgrow(table, Priority.ALWAYS);
 
         return root;
     }
 
+    // Recarga el catálogo de fórmulas en segundo plano
+    private static void cargarFormulas(TableView<Formula> table, ObservableList<Formula> data) {
+        BackgroundLoader.load(table, formulaService::getAllFormulas, data::setAll);
+    }
+
+    // Con texto, la tabla muestra las fórmulas encontradas por relevancia; sin texto, el catálogo completo
+    private static void buscarFormulas(TableView<Formula> table, ObservableList<Formula> data, TextField txtBuscar) {
+        String texto = txtBuscar.getText();
+        if (texto.isBlank()) {
+            table.setItems(data);
+            return;
+        }
+        BackgroundLoader.load(table, () -> formulaService.buscarFormulas(texto, LIMITE_BUSQUEDA), resultados -> {
+            if (texto.equals(txtBuscar.getText())) {
+                table.setItems(FXCollections.observableArrayList(resultados));
+            }
+        });
+    }
+
     // Maneja la creación y edición de fórmulas mediante un diálogo común
-    private static void mostrarDialogFormula(Formula formulaOriginal, ObservableList<Formula> data) {
+    private static void mostrarDialogFormula(Formula formulaOriginal) {
         Stage dlg = new Stage();
         dlg.initModality(Modality.APPLICATION_MODAL);
         dlg.setTitle(formulaOriginal == null ? "Nueva fórmula" : "Editar fórmula");
@@ -310,13 +761,15 @@ public class AdminWindow {
                 formula.setDescripcion(txtDescripcion.getText().trim());
                 formula.setPrecio(precio);
                 
-                boolean ok = formulaService.guardarFormula(formula);
-                if (ok) {
-                    data.setAll(formulaService.getAllFormulas());
-                    dlg.close();
-                } else {
-                    mostrarAlerta("Error guardando la fórmula.");
-                }
+                btnGuardar.setDisable(true);
+                BackgroundLoader.load(() -> formulaService.guardarFormula(formula), ok -> {
+                    btnGuardar.setDisable(false);
+                    if (ok) {
+                        dlg.close();
+                    } else {
+                        mostrarAlerta("Error guardando la fórmula.");
+                    }
+                });
             } catch (NumberFormatException ex) {
                 mostrarAlerta("Precio inválido. Usa un número, por ejemplo 12.5");
             }
@@ -369,35 +822,112 @@ public class AdminWindow {
         table.getColumns().add(colEmail);
         table.getColumns().add(colTelefono);
 
-        ObservableList<Paciente> data =
-                FXCollections.observableArrayList(pacienteRepository.findAll());
+        ObservableList<Paciente> data = FXCollections.observableArrayList();
         table.setItems(data);
+        cargarPacientes(table, data);
+
+        // Sugerencias al teclear por nombre, email o teléfono; se resuelven en memoria, sin ir a la base de datos
+        TextField txtBuscar = new TextField();
+        txtBuscar.setPromptText("Buscar por nombre, email o teléfono...");
+        txtBuscar.textProperty().addListener((_, _, _) -> buscarPacientes(table, data, txtBuscar));
+        pacienteService.precargarDirectorio();
+
+        // Altas (registros) y ediciones de pacientes se aplican fila a fila; los cambios de otros
+        // terminales llegan también por el bus, así que no hace falta un botón de recarga
+        suscribir(CambioDatos.Entidad.PACIENTE, cambio -> {
+            BackgroundLoader.cargarCambios(cambio, data,
+                    Paciente::getId, pacienteService::getPacienteById,
+                    pacienteService::getAllPacientes, Comparator.comparing(Paciente::getNombre));
+            BackgroundLoader.onFxThread(() -> {
+                if (!txtBuscar.getText().isBlank()) {
+                    buscarPacientes(table, data, txtBuscar);
+                }
+            });
+        });
 
         Button btnEditar   = new Button("Editar datos");
         btnEditar.getStyleClass().add("btn-primary");
 
-        Button btnRecargar = new Button("Actualizar");
-        btnRecargar.getStyleClass().add("btn-secondary");
-
         btnEditar.setOnAction(_ -> {
             Paciente sel = table.getSelectionModel().getSelectedItem();
-            if (sel != null) mostrarDialogEditarPaciente(sel, data);
+            if (sel != null) mostrarDialogEditarPaciente(sel);
             else mostrarAlerta("Selecciona un paciente.");
         });
 
-        btnRecargar.setOnAction(_ -> data.setAll(pacienteRepository.findAll()));
-
-        HBox botones = new HBox(10, btnEditar, btnRecargar);
+        Button btnImportar = new Button("Alta masiva CSV...");
+        btnImportar.getStyleClass().add("btn-secondary");
+        Label lblImportacion = new Label();
+        btnImportar.setOnAction(_ -> importarCsv(btnImportar, lblImportacion, "Alta masiva de pacientes desde CSV",
+                (csv, informe, alAvanzar) -> {
+                    ImportadorPacientes.Progreso fin = new ImportadorPacientes().importar(csv, informe,
+                            progreso -> alAvanzar.accept(progreso.toString()));
+                    return fin.errores() + fin.duplicados() > 0;
+                }));
+
+        HBox botones = new HBox(10, btnEditar, btnImportar, lblImportacion);
         botones.setAlignment(Pos.CENTER_LEFT);
 
-        root.getChildren().addAll(title, table, botones);
+        root.getChildren().addAll(title, txtBuscar, table, botones);
         VBox.setVgrow(table, Priority.ALWAYS);
 
         return root;
     }
 
+    // Muestra bajo el campo los pacientes que coinciden con lo escrito; si el índice aún se está
+    // construyendo, no espera: vuelve a intentarlo en cuanto esté listo
+    private static void sugerirPacientes(TextField txtPaciente, ContextMenu sugerencias, ObjectProperty<Paciente> paciente) {
+        String texto = txtPaciente.getText();
+        if (paciente.get() != null || texto.isBlank()) {
+            sugerencias.hide();
+            return;
+        }
+        if (!pacienteService.isDirectorioCargado()) {
+            pacienteService.directorioListo().thenRun(() ->
+                    BackgroundLoader.onFxThread(() -> sugerirPacientes(txtPaciente, sugerencias, paciente)));
+            return;
+        }
+
+        sugerencias.getItems().clear();
+        for (Paciente p : pacienteService.sugerirPacientes(texto, 10)) {
+            MenuItem item = new MenuItem(p.getNombre() + " (" + p.getEmail() + ")");
+            item.setOnAction(_ -> {
+                paciente.set(p);
+                txtPaciente.setText(p.getNombre());
+            });
+            sugerencias.getItems().add(item);
+        }
+        if (sugerencias.getItems().isEmpty()) {
+            sugerencias.hide();
+        } else if (!sugerencias.isShowing() && txtPaciente.getScene() != null) {
+            sugerencias.show(txtPaciente, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    // Recarga la lista de pacientes en segundo plano
+    private static void cargarPacientes(TableView<Paciente> table, ObservableList<Paciente> data) {
+        BackgroundLoader.load(table, pacienteService::getAllPacientes, data::setAll);
+    }
+
+    // Con texto, la tabla muestra las sugerencias del índice en memoria; sin texto, la lista completa.
+    // Si el índice aún se está construyendo, la búsqueda se repite (con el texto de ese momento) al terminar
+    private static void buscarPacientes(TableView<Paciente> table, ObservableList<Paciente> data, TextField txtBuscar) {
+        String texto = txtBuscar.getText();
+        if (texto.isBlank()) {
+            table.setItems(data);
+        } else if (!pacienteService.isDirectorioCargado()) {
+            table.setItems(FXCollections.observableArrayList());
+            table.setPlaceholder(BackgroundLoader.crearIndicador("Preparando la búsqueda..."));
+            pacienteService.directorioListo().thenRun(() -> BackgroundLoader.onFxThread(() -> {
+                table.setPlaceholder(new Label("No hay pacientes."));
+                buscarPacientes(table, data, txtBuscar);
+            }));
+        } else {
+            table.setItems(FXCollections.observableArrayList(pacienteService.sugerirPacientes(texto, LIMITE_BUSQUEDA)));
+        }
+    }
+
     // Formulario para la actualización de datos personales del paciente
-    private static void mostrarDialogEditarPaciente(Paciente p, ObservableList<Paciente> data) {
+    private static void mostrarDialogEditarPaciente(Paciente p) {
         Stage dlg = new Stage();
         dlg.initModality(Modality.APPLICATION_MODAL);
         dlg.setTitle("Editar datos del paciente");
@@ -418,13 +948,15 @@ public class AdminWindow {
             p.setEmail(txtEmail.getText().trim());
             p.setTelefono(txtTelefono.getText().trim());
             
-            boolean ok = pacienteRepository.update(p);
-            if (ok) {
-                data.setAll(pacienteRepository.findAll());
-                dlg.close();
-            } else {
-                mostrarAlerta("Error guardando los cambios.");
-            }
+            btnGuardar.setDisable(true);
+            BackgroundLoader.load(() -> pacienteService.actualizarPaciente(p), ok -> {
+                btnGuardar.setDisable(false);
+                if (ok) {
+                    dlg.close();
+                } else {
+                    mostrarAlerta("Error guardando los cambios.");
+                }
+            });
         });
 
         btnCancelar.setOnAction(_ -> dlg.close());
@@ -446,6 +978,90 @@ public class AdminWindow {
         dlg.showAndWait();
     }
 
+    // ============================================================
+    // SECCIÓN: INFORMES DE DEMANDA
+    // ============================================================
+
+    /**
+     * Demanda por fórmula y unidad agrupada por día, semana o mes, para planificar la producción.
+     * Solo lee los resúmenes que mantienen los triggers, nunca la tabla de pedidos.
+     */
+    private static VBox createInformesContent() {
+        VBox root = new VBox(10);
+        root.setPadding(new Insets(15));
+
+        Label title = new Label("Demanda por fórmula");
+        title.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
+
+        ComboBox<DemandaFormula.Periodo> cbPeriodo = new ComboBox<>();
+        cbPeriodo.getItems().addAll(DemandaFormula.Periodo.values());
+        cbPeriodo.setValue(DemandaFormula.Periodo.SEMANA);
+
+        // Por defecto, los últimos tres meses
+        DatePicker dpDesde = new DatePicker(LocalDate.now().minusMonths(3));
+        DatePicker dpHasta = new DatePicker(LocalDate.now());
+
+        TableView<DemandaFormula> table = new TableView<>();
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        table.setPlaceholder(new Label("No hay pedidos en el periodo."));
+
+        TableColumn<DemandaFormula, String> colPeriodo = new TableColumn<>("Periodo");
+        colPeriodo.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().periodo()));
+
+        TableColumn<DemandaFormula, String> colFormula = new TableColumn<>("Fórmula");
+        colFormula.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().formula()));
+
+        TableColumn<DemandaFormula, String> colUnidad = new TableColumn<>("Unidad");
+        colUnidad.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().unidad()));
+
+        TableColumn<DemandaFormula, Long> colPedidos = new TableColumn<>("Pedidos");
+        colPedidos.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().pedidos()));
+
+        TableColumn<DemandaFormula, Long> colCantidad = new TableColumn<>("Cantidad");
+        colCantidad.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().cantidad()));
+
+        table.getColumns().add(colPeriodo);
+        table.getColumns().add(colFormula);
+        table.getColumns().add(colUnidad);
+        table.getColumns().add(colPedidos);
+        table.getColumns().add(colCantidad);
+
+        Runnable cargar = () -> {
+            DemandaFormula.Periodo periodo = cbPeriodo.getValue();
+            LocalDate desde = dpDesde.getValue();
+            LocalDate hasta = dpHasta.getValue();
+            BackgroundLoader.load(table, () -> pedidoService.getDemanda(periodo, desde, hasta), table.getItems()::setAll);
+        };
+        cbPeriodo.valueProperty().addListener((_, _, _) -> cargar.run());
+        dpDesde.valueProperty().addListener((_, _, _) -> cargar.run());
+        dpHasta.valueProperty().addListener((_, _, _) -> cargar.run());
+        suscribir(CambioDatos.Entidad.PEDIDO, _ -> BackgroundLoader.onFxThread(cargar));
+        cargar.run();
+
+        // Recalcula los resúmenes desde los pedidos (p. ej. tras cargar datos antiguos a mano)
+        Button btnReconstruir = new Button("Reconstruir resúmenes");
+        btnReconstruir.getStyleClass().add("btn-secondary");
+        btnReconstruir.setOnAction(_ -> {
+            btnReconstruir.setDisable(true);
+            BackgroundLoader.load(pedidoService::reconstruirResumenes, ok -> {
+                btnReconstruir.setDisable(false);
+                if (!ok) {
+                    mostrarAlerta("No se pudieron reconstruir los resúmenes.");
+                }
+                cargar.run();
+            });
+        });
+
+        HBox filtros = new HBox(10, new Label("Agrupar por:"), cbPeriodo,
+                new Label("Desde:"), dpDesde, new Label("Hasta:"), dpHasta, btnReconstruir);
+        filtros.setAlignment(Pos.CENTER_LEFT);
+
+        root.getChildren().addAll(title, filtros, table);
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        return root;
+    }
+
     // ============================================================
     // UTILIDADES GENERALES
     // ============================================================
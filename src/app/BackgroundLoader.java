@@ -0,0 +1,197 @@
+package app;
+
+import app.service.CambioDatos;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.TableView;
+import javafx.collections.ObservableList;
+import javafx.scene.layout.VBox;
+
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Capa de carga de datos en segundo plano para las ventanas JavaFX.
+ * Las consultas se ejecutan en hilos virtuales y su resultado se aplica siempre en el hilo
+ * de JavaFX, de forma que la interfaz nunca se congela esperando a la base de datos.
+ *
+ * Cada carga es un Task cancelable; si se lanza una nueva carga sobre la misma tabla,
+ * la anterior se cancela y su resultado se descarta.
+ */
+public class BackgroundLoader {
+
+    // Un hilo virtual por tarea: las esperas de E/S no ocupan hilos del sistema
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Claves en las propiedades de la tabla para recordar su carga en curso y su placeholder normal
+    private static final String CARGA_EN_CURSO = "pharmacyfm.cargaEnCurso";
+    private static final String PLACEHOLDER = "pharmacyfm.placeholder";
+
+    /**
+     * Ejecuta la consulta en segundo plano y entrega el resultado en el hilo de JavaFX.
+     * @param consulta   Trabajo a realizar fuera del hilo de la interfaz.
+     * @param alTerminar Acción con el resultado; no se ejecuta si la tarea se cancela.
+     * @return El Task lanzado, por si se quiere cancelar.
+     */
+    public static <T> Task<T> load(Supplier<T> consulta, Consumer<T> alTerminar) {
+        Task<T> task = new Task<>() {
+            @Override
+            protected T call() {
+                return consulta.get();
+            }
+        };
+
+        task.setOnSucceeded(_ -> {
+            if (!task.isCancelled()) {
+                alTerminar.accept(task.getValue());
+            }
+        });
+        task.setOnFailed(_ -> {
+            System.err.println("Error cargando datos en segundo plano:");
+            task.getException().printStackTrace();
+        });
+
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Igual que load(), pero muestra un indicador de carga en la tabla mientras la consulta
+     * está en curso y cancela cualquier carga anterior pendiente sobre la misma tabla.
+     */
+    public static <T> Task<T> load(TableView<?> tabla, Supplier<T> consulta, Consumer<T> alTerminar) {
+        Object anterior = tabla.getProperties().get(CARGA_EN_CURSO);
+        if (anterior instanceof Task<?> t && t.isRunning()) {
+            t.cancel();
+        }
+
+        // El placeholder normal se guarda solo la primera vez, para no confundirlo con el indicador
+        tabla.getProperties().putIfAbsent(PLACEHOLDER, tabla.getPlaceholder() != null
+                ? tabla.getPlaceholder() : new Label("No hay datos."));
+        Node placeholderOriginal = (Node) tabla.getProperties().get(PLACEHOLDER);
+        tabla.setPlaceholder(crearIndicador("Cargando..."));
+
+        Task<T> task = load(consulta, resultado -> {
+            tabla.setPlaceholder(placeholderOriginal);
+            alTerminar.accept(resultado);
+        });
+        task.setOnFailed(_ -> {
+            System.err.println("Error cargando datos en segundo plano:");
+            task.getException().printStackTrace();
+            tabla.setPlaceholder(new Label("No se pudieron cargar los datos."));
+        });
+
+        tabla.getProperties().put(CARGA_EN_CURSO, task);
+        return task;
+    }
+
+    /**
+     * Aplica un evento del bus a una lista ya cargada, tocando solo las filas afectadas:
+     * las bajas se quitan y las altas o modificaciones se consultan una a una en segundo plano
+     * y se sustituyen en su sitio o se colocan (altas, o filas cuya clave de orden ha cambiado)
+     * en su posición según el orden de la lista.
+     * Los cambios externos (sin ids) recargan la lista completa.
+     * Se puede llamar desde cualquier hilo.
+     * @param id     Identificador de cada fila.
+     * @param buscar Consulta de una fila por id (null si ya no existe).
+     * @param todas  Consulta de la lista completa.
+     * @param orden  Orden de la lista (la lista debe estar ordenada así), para colocar las filas.
+     */
+    public static <T> void cargarCambios(CambioDatos cambio, ObservableList<T> data, ToIntFunction<T> id,
+                                         IntFunction<T> buscar, Supplier<List<T>> todas, Comparator<T> orden) {
+        if (cambio.tipo() == CambioDatos.Tipo.EXTERNO) {
+            load(todas, data::setAll);
+            return;
+        }
+        if (cambio.tipo() == CambioDatos.Tipo.ELIMINADO) {
+            onFxThread(() -> data.removeIf(fila -> cambio.ids().contains(id.applyAsInt(fila))));
+            return;
+        }
+
+        load(() -> cambio.ids().stream().map(buscar::apply).filter(Objects::nonNull).toList(), filas -> {
+            Map<Integer, Integer> posiciones = new HashMap<>();
+            for (int i = 0; i < data.size(); i++) {
+                posiciones.put(id.applyAsInt(data.get(i)), i);
+            }
+
+            // Las filas que siguen en orden se sustituyen en su sitio (se conserva la selección);
+            // las que cambian de clave (p. ej. un nombre editado) se quitan y se recolocan,
+            // para que la lista siga ordenada y la búsqueda binaria de las altas sea válida
+            List<T> recolocar = new ArrayList<>();
+            for (T fila : filas) {
+                Integer posicion = posiciones.get(id.applyAsInt(fila));
+                if (posicion == null) {
+                    recolocar.add(fila);
+                } else if (sigueEnOrden(data, posicion, fila, orden)) {
+                    data.set(posicion, fila);
+                } else {
+                    recolocar.add(fila);
+                }
+            }
+            if (recolocar.isEmpty()) {
+                return;
+            }
+
+            Set<Integer> idsRecolocar = new HashSet<>();
+            recolocar.forEach(fila -> idsRecolocar.add(id.applyAsInt(fila)));
+            data.removeIf(fila -> idsRecolocar.contains(id.applyAsInt(fila)));
+            for (T fila : recolocar) {
+                int hueco = Collections.binarySearch(data, fila, orden);
+                data.add(hueco < 0 ? -hueco - 1 : hueco, fila);
+            }
+        });
+    }
+
+    // Indica si la fila puede ocupar la posición sin romper el orden respecto a sus vecinas
+    private static <T> boolean sigueEnOrden(List<T> data, int posicion, T fila, Comparator<T> orden) {
+        return (posicion == 0 || orden.compare(data.get(posicion - 1), fila) <= 0)
+                && (posicion == data.size() - 1 || orden.compare(fila, data.get(posicion + 1)) <= 0);
+    }
+
+    /**
+     * Ejecuta un trabajo en segundo plano sin entregar resultado (p. ej. precargas).
+     */
+    public static void run(Runnable trabajo) {
+        EXECUTOR.execute(trabajo);
+    }
+
+    /**
+     * Ejecuta la acción en el hilo de JavaFX (directamente si ya estamos en él).
+     */
+    public static void onFxThread(Runnable accion) {
+        if (Platform.isFxApplicationThread()) {
+            accion.run();
+        } else {
+            Platform.runLater(accion);
+        }
+    }
+
+    /**
+     * Indicador de progreso con texto, usado como contenido provisional mientras se cargan datos.
+     */
+    public static Node crearIndicador(String texto) {
+        ProgressIndicator progreso = new ProgressIndicator();
+        progreso.setMaxSize(40, 40);
+        VBox box = new VBox(8, progreso, new Label(texto));
+        box.setAlignment(Pos.CENTER);
+        return box;
+    }
+}
@@ -0,0 +1,16 @@
+package app;
+
+import java.util.List;
+
+/**
+ * Pedidos creados o modificados desde una versión de cambio dada.
+ *
+ * @param pedidos Pedidos que cambiaron, en orden de versión.
+ * @param version Versión hasta la que llegan estos cambios; se usa como punto de partida en la siguiente consulta.
+ */
+public record CambiosPedidos(List<Pedido> pedidos, long version) {
+
+    public boolean isEmpty() {
+        return pedidos.isEmpty();
+    }
+}
@@ -0,0 +1,487 @@
+package app;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool acotado de conexiones SQLite reutilizables.
+ * Cada conexión física se abre una sola vez, se inicializa con sus PRAGMAs
+ * y se entrega a los repositorios envuelta en un proxy: al llamar a close()
+ * la conexión no se cierra, sino que vuelve al pool lista para el siguiente uso.
+ *
+ * Además, cada conexión física mantiene una caché LRU de PreparedStatement indexada por el SQL:
+ * los repositorios siguen llamando a prepareStatement()/close() como siempre, pero la sentencia
+ * ya compilada por SQLite se reutiliza en lugar de volver a analizarse y planificarse.
+ */
+public class ConnectionPool {
+
+    private final String nombre;
+    private final String url;
+    private final int tamano;
+    private final long timeoutMs;
+    private final long umbralFugaMs;
+    private final boolean trazasFuga;
+    private final List<String> pragmas;
+    private final int tamanoCacheSentencias;
+
+    // Conexiones libres (LIFO para reutilizar siempre la más "caliente") y conexiones prestadas
+    private final LinkedBlockingDeque<PooledConnection> libres = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> prestadas = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger abiertas = new AtomicInteger();
+
+    // ---- Estadísticas ----
+    private final long creadoEn = System.nanoTime();
+    private final LongAdder prestamos = new LongAdder();
+    private final LongAdder esperaTotalNanos = new LongAdder();
+    private final AtomicLong esperaMaxNanos = new AtomicLong();
+    private final LongAdder usoTotalNanos = new LongAdder();
+    private final LongAdder fugas = new LongAdder();
+    private final LongAdder aciertosCache = new LongAdder();
+    private final LongAdder fallosCache = new LongAdder();
+    private final LongAdder expulsionesCache = new LongAdder();
+
+    ConnectionPool(String nombre, String url, int tamano, long timeoutMs,
+                   long umbralFugaMs, boolean trazasFuga, List<String> pragmas, int tamanoCacheSentencias) {
+        if (tamano <= 0) {
+            throw new IllegalArgumentException("El tamaño del pool debe ser mayor que 0: " + tamano);
+        }
+        this.nombre = nombre;
+        this.url = url;
+        this.tamano = tamano;
+        this.timeoutMs = timeoutMs;
+        this.umbralFugaMs = umbralFugaMs;
+        this.trazasFuga = trazasFuga;
+        this.pragmas = List.copyOf(pragmas);
+        this.tamanoCacheSentencias = tamanoCacheSentencias;
+    }
+
+    /**
+     * Presta una conexión del pool, abriendo una nueva si aún no se ha alcanzado el tamaño máximo.
+     * @throws SQLException si no hay ninguna conexión libre dentro del tiempo de espera configurado.
+     */
+    public Connection borrow() throws SQLException {
+        long inicio = System.nanoTime();
+        PooledConnection pc = libres.pollFirst();
+
+        if (pc == null) {
+            pc = abrirSiHayHueco();
+        }
+        if (pc == null) {
+            try {
+                pc = libres.pollFirst(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrumpido esperando una conexión del pool '" + nombre + "'", e);
+            }
+            if (pc == null) {
+                throw new SQLException("Tiempo de espera agotado (" + timeoutMs + " ms) esperando una conexión del pool '"
+                        + nombre + "'. Conexiones en uso: " + prestadas.size());
+            }
+        }
+
+        long espera = System.nanoTime() - inicio;
+        prestamos.increment();
+        esperaTotalNanos.add(espera);
+        esperaMaxNanos.accumulateAndGet(espera, Math::max);
+
+        return pc.prestar();
+    }
+
+    /**
+     * Presta una conexión solo si hay una disponible de inmediato, sin esperar.
+     * Pensado para tareas de mantenimiento que no deben competir con el trabajo normal.
+     * @return la conexión, o null si todas están en uso.
+     */
+    public Connection tryBorrow() throws SQLException {
+        PooledConnection pc = libres.pollFirst();
+        if (pc == null) {
+            pc = abrirSiHayHueco();
+        }
+        if (pc == null) {
+            return null;
+        }
+        prestamos.increment();
+        return pc.prestar();
+    }
+
+    // Abre una conexión física nueva solo si el pool no está completo
+    private PooledConnection abrirSiHayHueco() throws SQLException {
+        while (true) {
+            int actuales = abiertas.get();
+            if (actuales >= tamano) {
+                return null;
+            }
+            if (abiertas.compareAndSet(actuales, actuales + 1)) {
+                try {
+                    return new PooledConnection(abrirConexion());
+                } catch (SQLException e) {
+                    abiertas.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Abre la conexión física y le aplica los PRAGMAs una única vez.
+     */
+    private Connection abrirConexion() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : pragmas) {
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * Revisa las conexiones prestadas y avisa de las que superan el umbral de fuga.
+     * Se invoca periódicamente desde el hilo de mantenimiento de DatabaseConnection.
+     */
+    void detectarFugas() {
+        long ahora = System.nanoTime();
+        for (PooledConnection pc : prestadas) {
+            long retenidaMs = TimeUnit.NANOSECONDS.toMillis(ahora - pc.prestadaEn);
+            if (retenidaMs >= umbralFugaMs && !pc.fugaNotificada) {
+                pc.fugaNotificada = true;
+                fugas.increment();
+                System.err.println("Posible fuga de conexión en el pool '" + nombre + "': retenida " + retenidaMs
+                        + " ms por el hilo '" + pc.hiloPrestamo + "'.");
+                if (pc.trazaPrestamo != null) {
+                    pc.trazaPrestamo.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cierra todas las conexiones libres. Se usa al apagar la aplicación.
+     */
+    void cerrar() {
+        PooledConnection pc;
+        while ((pc = libres.pollFirst()) != null) {
+            pc.cerrarFisica();
+        }
+    }
+
+    /**
+     * Instantánea de las estadísticas de uso del pool.
+     */
+    public Stats getStats() {
+        long ahora = System.nanoTime();
+        long uso = usoTotalNanos.sum();
+        for (PooledConnection pc : prestadas) {
+            uso += ahora - pc.prestadaEn;
+        }
+        long total = prestamos.sum();
+        long aciertos = aciertosCache.sum();
+        long consultasCache = aciertos + fallosCache.sum();
+        double transcurrido = (double) (ahora - creadoEn) * tamano;
+
+        return new Stats(
+                nombre,
+                tamano,
+                abiertas.get(),
+                prestadas.size(),
+                total,
+                total == 0 ? 0 : esperaTotalNanos.sum() / 1_000_000.0 / total,
+                esperaMaxNanos.get() / 1_000_000.0,
+                transcurrido <= 0 ? 0 : uso / transcurrido,
+                fugas.sum(),
+                aciertos,
+                fallosCache.sum(),
+                expulsionesCache.sum(),
+                consultasCache == 0 ? 0 : (double) aciertos / consultasCache
+        );
+    }
+
+    /**
+     * Estadísticas del pool: latencia de préstamo, ocupación, fugas detectadas y caché de sentencias.
+     */
+    public record Stats(String nombre, int tamano, int abiertas, int enUso, long prestamos,
+                        double esperaMediaMs, double esperaMaxMs, double utilizacion, long fugas,
+                        long aciertosCache, long fallosCache, long expulsionesCache, double tasaAciertosCache) {
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Pool '%s': %d/%d abiertas, %d en uso, %d préstamos, espera media %.3f ms (máx %.3f ms), utilización %.1f%%, fugas %d, "
+                            + "caché de sentencias %d aciertos / %d fallos (%.1f%%), %d expulsiones",
+                    nombre, abiertas, tamano, enUso, prestamos, esperaMediaMs, esperaMaxMs, utilizacion * 100, fugas,
+                    aciertosCache, fallosCache, tasaAciertosCache * 100, expulsionesCache);
+        }
+    }
+
+    // ============================================================
+    // Conexión física gestionada por el pool
+    // ============================================================
+
+    private final class PooledConnection {
+
+        private final Connection real;
+
+        // Datos del préstamo actual, usados para estadísticas y detección de fugas
+        private volatile long prestadaEn;
+        private volatile String hiloPrestamo;
+        private volatile Throwable trazaPrestamo;
+        private volatile boolean fugaNotificada;
+
+        // Caché LRU de sentencias preparadas; solo la usa el hilo que tiene la conexión prestada
+        private final LinkedHashMap<String, SentenciaCacheada> sentencias = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SentenciaCacheada> eldest) {
+                if (size() > tamanoCacheSentencias) {
+                    expulsionesCache.increment();
+                    // Si alguien la está usando todavía (consultas anidadas), se cerrará al liberarla
+                    eldest.getValue().expulsar();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        PooledConnection(Connection real) {
+            this.real = real;
+        }
+
+        /**
+         * Devuelve la sentencia preparada para el SQL indicado, reutilizando la de la caché si existe.
+         * Si la sentencia cacheada ya está en uso (dos consultas iguales anidadas) se prepara una aparte.
+         */
+        private PreparedStatement preparar(Connection proxy, String sql, int clavesGeneradas) throws SQLException {
+            if (tamanoCacheSentencias <= 0) {
+                return real.prepareStatement(sql, clavesGeneradas);
+            }
+
+            String clave = clavesGeneradas + ":" + sql;
+            SentenciaCacheada cacheada = sentencias.get(clave);
+
+            if (cacheada != null && !cacheada.enUso) {
+                aciertosCache.increment();
+            } else if (cacheada != null) {
+                fallosCache.increment();
+                return real.prepareStatement(sql, clavesGeneradas);
+            } else {
+                fallosCache.increment();
+                PreparedStatement nueva = real.prepareStatement(sql, clavesGeneradas);
+                cacheada = new SentenciaCacheada(clave, nueva, nueva.getFetchSize());
+                sentencias.put(clave, cacheada);
+            }
+            return cacheada.prestar(proxy);
+        }
+
+        /**
+         * Marca la conexión como prestada y devuelve un proxy nuevo para este préstamo.
+         * Cada préstamo tiene su propio proxy, así un close() tardío no afecta al siguiente usuario.
+         */
+        Connection prestar() {
+            prestadaEn = System.nanoTime();
+            hiloPrestamo = Thread.currentThread().getName();
+            trazaPrestamo = trazasFuga ? new Throwable("Conexión prestada aquí") : null;
+            fugaNotificada = false;
+            prestadas.add(this);
+
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handler());
+        }
+
+        /**
+         * Devuelve la conexión al pool dejando su estado limpio (autocommit activo, sin transacción abierta).
+         * Si la conexión está dañada se descarta y se libera su hueco.
+         */
+        void devolver() {
+            prestadas.remove(this);
+            usoTotalNanos.add(System.nanoTime() - prestadaEn);
+            trazaPrestamo = null;
+
+            try {
+                if (!real.getAutoCommit()) {
+                    real.rollback();
+                    real.setAutoCommit(true);
+                }
+                libres.offerFirst(this);
+            } catch (SQLException e) {
+                System.err.println("Descartando conexión dañada del pool '" + nombre + "':");
+                e.printStackTrace();
+                cerrarFisica();
+            }
+        }
+
+        void cerrarFisica() {
+            abiertas.decrementAndGet();
+            sentencias.values().forEach(SentenciaCacheada::cerrarReal);
+            sentencias.clear();
+            try {
+                real.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Intercepta close() e isClosed(); el resto de llamadas se delegan en la conexión real.
+         */
+        private final class Handler implements InvocationHandler {
+
+            private boolean cerrada;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!cerrada) {
+                            cerrada = true;
+                            devolver();
+                        }
+                        return null;
+                    case "isClosed":
+                        return cerrada || real.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "PooledConnection[" + nombre + "]" + (cerrada ? " (devuelta)" : "");
+                    default:
+                        break;
+                }
+
+                if (cerrada) {
+                    throw new SQLException("La conexión ya fue devuelta al pool '" + nombre + "'");
+                }
+
+                // prepareStatement(sql) y prepareStatement(sql, autoGeneratedKeys) pasan por la caché
+                if (method.getName().equals("prepareStatement") && args != null) {
+                    if (args.length == 1) {
+                        return preparar((Connection) proxy, (String) args[0], Statement.NO_GENERATED_KEYS);
+                    }
+                    if (args.length == 2 && args[1] instanceof Integer claves) {
+                        return preparar((Connection) proxy, (String) args[0], claves);
+                    }
+                }
+
+                try {
+                    return method.invoke(real, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    
+        /**
+         * Sentencia preparada de la caché. Se presta envuelta en un proxy cuyo close()
+         * solo limpia los parámetros, el lote pendiente y el fetch size, y la deja disponible
+         * para la siguiente consulta.
+         */
+        private final class SentenciaCacheada {
+
+            private final String clave;
+            private final PreparedStatement real;
+            private final int fetchSizeInicial;
+            private boolean enUso;
+
+            // Sacada de la caché mientras estaba prestada: se cierra al liberarla
+            private boolean expulsada;
+
+            SentenciaCacheada(String clave, PreparedStatement real, int fetchSizeInicial) {
+                this.clave = clave;
+                this.real = real;
+                this.fetchSizeInicial = fetchSizeInicial;
+            }
+
+            PreparedStatement prestar(Connection conexion) {
+                enUso = true;
+                boolean[] cerrada = {false};
+
+                return (PreparedStatement) Proxy.newProxyInstance(
+                        PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class},
+                        (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "close":
+                                    if (!cerrada[0]) {
+                                        cerrada[0] = true;
+                                        liberar();
+                                    }
+                                    return null;
+                                case "isClosed":
+                                    return cerrada[0] || real.isClosed();
+                                case "getConnection":
+                                    return conexion;
+                                case "equals":
+                                    return proxy == args[0];
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                default:
+                                    break;
+                            }
+                            if (cerrada[0]) {
+                                throw new SQLException("La sentencia ya está cerrada");
+                            }
+                            try {
+                                return method.invoke(real, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        });
+            }
+
+            // Deja la sentencia lista para reutilizarse; si no se puede limpiar, se saca de la caché.
+            // Un lote a medias (addBatch sin executeBatch por un error) no debe ejecutarse con el siguiente usuario
+            private void liberar() {
+                enUso = false;
+                if (expulsada) {
+                    cerrarReal();
+                    return;
+                }
+                try {
+                    real.clearParameters();
+                    real.clearBatch();
+                    real.setFetchSize(fetchSizeInicial);
+                } catch (SQLException e) {
+                    sentencias.remove(clave, this);
+                    cerrarReal();
+                }
+            }
+
+            void expulsar() {
+                if (enUso) {
+                    expulsada = true;
+                } else {
+                    cerrarReal();
+                }
+            }
+
+            void cerrarReal() {
+                try {
+                    real.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -8,7 +8,8 @@ import java.sql.Statement;
 
 /**
  * Clase responsable de inicializar la base de datos.
- * Crea las tablas si no existen e inserta el usuario administrador por defecto.
+ * Crea las tablas si no existen, aplica las migraciones pendientes (SchemaMigrations)
+ * e inserta el usuario administrador por defecto.
  *
  * La gestión de conexiones está en DatabaseConnection.
  * Las operaciones CRUD están en los repositorios (app.repository).
@@ -24,8 +25,7 @@ public class Database {
         try (Connection conn = DatabaseConnection.getConnection();
              Statement stmt = conn.createStatement()) {
 
-            // Activación del soporte para claves foráneas en SQLite
-            stmt.execute("PRAGMA foreign_keys = ON;");
+            // El soporte de claves foráneas (PRAGMA foreign_keys) ya lo activa el pool en cada conexión
 
             // ---- Estructura de la tabla Usuarios ----
             // Almacena credenciales y datos básicos para el control de acceso y roles
@@ -59,7 +59,7 @@ public class Database {
                 "CREATE TABLE IF NOT EXISTS formulas (" +
                 " id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 " nombre TEXT NOT NULL," +
-                " descripción TEXT," +
+                " descripcion TEXT," +
                 " precio REAL" +
                 ");"
             );
@@ -75,13 +75,16 @@ public class Database {
                 " cantidad INTEGER NOT NULL," +
                 " unidad TEXT," +
                 " observaciones TEXT," +
-                " fecha TEXT NOT NULL," +
-                " estado TEXT NOT NULL," +
+                " fecha INTEGER NOT NULL," +
+                " estado INTEGER NOT NULL," +
                 " FOREIGN KEY (id_paciente) REFERENCES pacientes(id)," +
                 " FOREIGN KEY (id_formula) REFERENCES formulas(id)" +
                 ");"
             );
 
+            // ---- Migraciones versionadas (índices y cambios posteriores del esquema) ----
+            SchemaMigrations.migrate(conn);
+
             // ---- Inserción del Administrador por defecto ----
             // Se utiliza BCrypt para el hashing de la contraseña por seguridad
             String adminHash = BCrypt.hashpw("admin", BCrypt.gensalt());
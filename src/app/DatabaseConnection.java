@@ -1,13 +1,52 @@
 package app;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Clase responsable de gestionar la conexión a la base de datos SQLite.
- * Sigue el patrón Singleton para garantizar una única fuente de conexión.
+ * Sigue el patrón Singleton para garantizar una única fuente de conexión:
+ * todas las conexiones salen de pools acotados (ConnectionPool) que las reutilizan.
+ *
+ * La base de datos trabaja en modo WAL con dos "carriles" separados:
+ *  - Escritura: una única conexión dedicada (getConnection / executeWrite). SQLite solo admite
+ *    un escritor a la vez, así que serializarlos aquí evita los SQLITE_BUSY entre hilos.
+ *  - Lectura: varias conexiones de solo lectura (getReadConnection). En WAL los lectores
+ *    trabajan sobre una instantánea y nunca bloquean al escritor ni son bloqueados por él.
+ *
+ * Configuración mediante propiedades del sistema (-D):
+ *  - pharmacyfm.db.wal               usar journal WAL (por defecto true; false = rollback journal clásico)
+ *  - pharmacyfm.db.pool.size         número máximo de conexiones de lectura (por defecto 4)
+ *  - pharmacyfm.db.pool.timeoutMs    espera máxima para obtener una conexión (por defecto 30000)
+ *  - pharmacyfm.db.pool.leakMs       tiempo a partir del cual una conexión prestada se considera fuga (por defecto 60000)
+ *  - pharmacyfm.db.pool.trazas       si es true, guarda la traza de cada préstamo para depurar fugas
+ *  - pharmacyfm.db.pool.estadisticas si es true, muestra las estadísticas de los pools al cerrar la aplicación
+ *  - pharmacyfm.db.stmtCache.size  sentencias preparadas cacheadas por conexión (por defecto 32; 0 la desactiva)
+ *  - pharmacyfm.db.busyTimeoutMs     espera interna de SQLite ante bloqueos (por defecto 5000)
+ *  - pharmacyfm.db.checkpointSeg     periodo del checkpoint WAL en segundos cuando no hay escrituras (por defecto 30)
+ *  - pharmacyfm.db.vigilanciaMs      periodo de sondeo de cambios hechos por otros procesos (por defecto 500)
  */
 public class DatabaseConnection {
 
@@ -15,6 +54,71 @@ public class DatabaseConnection {
     private static final String DB_FILE = initDbPath();
     private static final String DB_URL = "jdbc:sqlite:" + DB_FILE;
 
+    private static final boolean WAL = Boolean.parseBoolean(System.getProperty("pharmacyfm.db.wal", "true"));
+    private static final int BUSY_TIMEOUT_MS = Integer.getInteger("pharmacyfm.db.busyTimeoutMs", 5000);
+
+    // Reintentos ante SQLITE_BUSY que el busy_timeout no cubre (p. ej. BUSY_SNAPSHOT en WAL)
+    private static final int MAX_REINTENTOS = 5;
+    private static final long ESPERA_INICIAL_MS = 20;
+
+    // PRAGMAs que se aplican una sola vez al abrir cada conexión física
+    private static final List<String> PRAGMAS_ESCRITURA = List.of(
+            "PRAGMA journal_mode = " + (WAL ? "WAL" : "DELETE"),
+            // En WAL, synchronous=NORMAL es seguro ante caídas de la app y evita un fsync por commit
+            "PRAGMA synchronous = " + (WAL ? "NORMAL" : "FULL"),
+            "PRAGMA wal_autocheckpoint = 1000",
+            "PRAGMA foreign_keys = ON",
+            "PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS
+    );
+
+    private static final List<String> PRAGMAS_LECTURA = List.of(
+            "PRAGMA foreign_keys = ON",
+            "PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS,
+            // Cualquier intento de escritura por este carril falla en lugar de competir con el escritor
+            "PRAGMA query_only = ON"
+    );
+
+    private static final long TIMEOUT_MS = Long.getLong("pharmacyfm.db.pool.timeoutMs", 30_000L);
+    private static final long FUGA_MS = Long.getLong("pharmacyfm.db.pool.leakMs", 60_000L);
+    private static final boolean TRAZAS = Boolean.getBoolean("pharmacyfm.db.pool.trazas");
+    private static final boolean ESTADISTICAS = Boolean.getBoolean("pharmacyfm.db.pool.estadisticas");
+    private static final int CACHE_SENTENCIAS = Integer.getInteger("pharmacyfm.db.stmtCache.size", 32);
+
+    private static final ConnectionPool ESCRITURA = new ConnectionPool(
+            "escritura", DB_URL, 1, TIMEOUT_MS, FUGA_MS, TRAZAS, PRAGMAS_ESCRITURA, CACHE_SENTENCIAS);
+
+    private static final ConnectionPool LECTURA = new ConnectionPool(
+            "lectura", DB_URL, Integer.getInteger("pharmacyfm.db.pool.size", 4),
+            TIMEOUT_MS, FUGA_MS, TRAZAS, PRAGMAS_LECTURA, CACHE_SENTENCIAS);
+
+    // Hilo de mantenimiento (fugas y checkpoints); es daemon para no impedir el cierre de la app
+    private static final ScheduledExecutorService MANTENIMIENTO = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pharmacyfm-db-mantenimiento");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // ---- Vigilancia de cambios entre procesos (solo se usan desde el hilo de mantenimiento) ----
+    private static final long VIGILANCIA_MS = Long.getLong("pharmacyfm.db.vigilanciaMs", 500L);
+    private static final List<Consumer<Set<String>>> OYENTES_CAMBIOS = new CopyOnWriteArrayList<>();
+    // Lo consultan también los escritores: sin vigilancia no se anotan las escrituras propias
+    private static volatile boolean vigilando;
+    private static Connection conexionVigilancia;
+    private static long ultimoDataVersion = -1;
+    private static Map<String, Long> versionesTablas = Map.of();
+
+    // Tramos (antes, después] de la versión de cada tabla en 'cambios_tablas' producidos por las transacciones
+    // de este proceso; la vigilancia solo avisa de lo que no cubren (lo que escribió otro proceso)
+    private static final Map<String, List<long[]>> TRAMOS_PROPIOS = new HashMap<>();
+
+    /**
+     * Unidad de trabajo JDBC que puede lanzar SQLException.
+     */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T execute(Connection conn) throws SQLException;
+    }
+
     // Bloque estático para asegurar que el driver se cargue al iniciar la clase
     static {
         try {
@@ -24,6 +128,29 @@ public class DatabaseConnection {
             System.err.println("No se pudo cargar el driver de SQLite JDBC:");
             e.printStackTrace();
         }
+
+        MANTENIMIENTO.scheduleWithFixedDelay(() -> {
+            ESCRITURA.detectarFugas();
+            LECTURA.detectarFugas();
+        }, 10, 10, TimeUnit.SECONDS);
+
+        if (WAL) {
+            long periodo = Long.getLong("pharmacyfm.db.checkpointSeg", 30L);
+            MANTENIMIENTO.scheduleWithFixedDelay(() -> checkpoint("PASSIVE", false), periodo, periodo, TimeUnit.SECONDS);
+        }
+
+        // Al cerrar la aplicación se vuelca el WAL, se muestran las estadísticas (si se piden) y se liberan las conexiones
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (WAL) {
+                checkpoint("TRUNCATE", true);
+            }
+            if (ESTADISTICAS) {
+                getPoolStats().forEach(System.out::println);
+            }
+            cerrarVigilancia();
+            ESCRITURA.cerrar();
+            LECTURA.cerrar();
+        }, "pharmacyfm-db-cierre"));
     }
 
     /**
@@ -56,11 +183,306 @@ public class DatabaseConnection {
     }
 
     /**
-     * Proporciona una instancia de conexión activa mediante DriverManager.
+     * Proporciona la conexión de escritura (única) prestada por el pool.
+     * Debe cerrarse siempre (try-with-resources): close() la devuelve al pool en lugar de cerrarla.
+     * Mientras un hilo la tiene, el resto de escritores espera su turno.
      * @return Connection objeto de conexión SQL.
-     * @throws SQLException si ocurre un error al establecer el enlace con el archivo .db.
+     * @throws SQLException si ocurre un error al establecer el enlace con el archivo .db
+     *                      o si no hay conexiones libres dentro del tiempo de espera.
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL);
+        return ESCRITURA.borrow();
+    }
+
+    /**
+     * Proporciona una conexión de solo lectura. Es la que deben usar todas las consultas SELECT.
+     * @throws SQLException si no hay conexiones de lectura libres dentro del tiempo de espera.
+     */
+    public static Connection getReadConnection() throws SQLException {
+        return LECTURA.borrow();
+    }
+
+    /**
+     * Ejecuta una escritura con la conexión de escritura, reintentando con espera exponencial
+     * si SQLite responde SQLITE_BUSY/SQLITE_LOCKED (p. ej. otro terminal está escribiendo).
+     * El trabajo se repite completo en cada intento, así que debe ser idempotente hasta su commit.
+     * Con la vigilancia de cambios en marcha, el trabajo corre dentro de una EscrituraVigilada
+     * (una sola transacción con el cerrojo de escritura tomado desde el principio).
+     */
+    public static <T> T executeWrite(SqlWork<T> work) throws SQLException {
+        long espera = ESPERA_INICIAL_MS;
+        for (int intento = 1; ; intento++) {
+            try (Connection conn = getConnection()) {
+                return vigilando ? new EscrituraVigilada(conn).ejecutar(work) : work.execute(conn);
+            } catch (SQLException e) {
+                if (!isBusy(e) || intento >= MAX_REINTENTOS) {
+                    throw e;
+                }
+                System.err.println("Base de datos ocupada, reintento " + intento + " en " + espera + " ms.");
+                try {
+                    Thread.sleep(espera + ThreadLocalRandom.current().nextLong(espera));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                espera *= 2;
+            }
+        }
+    }
+
+    /**
+     * Indica si el error corresponde a un bloqueo temporal (SQLITE_BUSY = 5, SQLITE_LOCKED = 6),
+     * incluidos sus códigos extendidos.
+     */
+    public static boolean isBusy(SQLException e) {
+        int codigo = e.getErrorCode() & 0xFF;
+        return codigo == 5 || codigo == 6;
+    }
+
+    /**
+     * Vuelca el WAL al archivo principal. En modo PASSIVE solo se ejecuta si el escritor está libre,
+     * para no retrasar ninguna escritura; en el cierre se espera al escritor y se trunca el WAL.
+     */
+    private static void checkpoint(String modo, boolean esperar) {
+        try (Connection conn = esperar ? ESCRITURA.borrow() : ESCRITURA.tryBorrow()) {
+            if (conn == null) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA wal_checkpoint(" + modo + ")");
+            }
+        } catch (SQLException e) {
+            System.err.println("Error ejecutando el checkpoint WAL:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registra un oyente que recibe los nombres de las tablas modificadas por otros procesos
+     * (otras instancias de PharmacyFM sobre el mismo archivo); las escrituras de este proceso ya
+     * se anuncian con sus propios eventos y no se repiten. La primera llamada arranca la vigilancia.
+     * Los oyentes se llaman en el hilo de mantenimiento y deben ser rápidos.
+     */
+    public static synchronized void addChangeListener(Consumer<Set<String>> oyente) {
+        OYENTES_CAMBIOS.add(oyente);
+        if (!vigilando) {
+            vigilando = true;
+            MANTENIMIENTO.scheduleWithFixedDelay(DatabaseConnection::vigilarCambios,
+                    VIGILANCIA_MS, VIGILANCIA_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sondeo de cambios. PRAGMA data_version, en una conexión propia que no se usa para nada más,
+     * cambia cuando cualquier otra conexión confirma datos; es una lectura de memoria que no toca el disco.
+     * Solo cuando cambia se lee 'cambios_tablas' (mantenida por triggers) para saber qué tablas cambiaron,
+     * descartando los saltos de versión que corresponden a escrituras de este mismo proceso.
+     */
+    private static synchronized void vigilarCambios() {
+        try {
+            if (conexionVigilancia == null) {
+                // Conexión fuera del pool: data_version solo es útil si siempre se consulta en la misma
+                conexionVigilancia = DriverManager.getConnection(DB_URL);
+                try (Statement stmt = conexionVigilancia.createStatement()) {
+                    stmt.execute("PRAGMA query_only = ON");
+                    stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+                }
+                ultimoDataVersion = leerDataVersion();
+                versionesTablas = leerVersionesTablas(conexionVigilancia);
+                return;
+            }
+
+            long dataVersion = leerDataVersion();
+            if (dataVersion == ultimoDataVersion) {
+                return;
+            }
+            ultimoDataVersion = dataVersion;
+
+            Map<String, Long> actuales = leerVersionesTablas(conexionVigilancia);
+            Set<String> cambiadas = new LinkedHashSet<>();
+            synchronized (TRAMOS_PROPIOS) {
+                actuales.forEach((tabla, version) -> {
+                    Long anterior = versionesTablas.get(tabla);
+                    if (!Objects.equals(anterior, version)
+                            && (anterior == null || !cubiertoPorEscriturasPropias(tabla, anterior, version))) {
+                        cambiadas.add(tabla);
+                    }
+                    // Los tramos ya alcanzados no se volverán a necesitar
+                    List<long[]> tramos = TRAMOS_PROPIOS.get(tabla);
+                    if (tramos != null) {
+                        tramos.removeIf(t -> t[1] <= version);
+                    }
+                });
+            }
+            versionesTablas = actuales;
+
+            if (cambiadas.isEmpty()) {
+                return;
+            }
+            Set<String> tablas = Set.copyOf(cambiadas);
+            for (Consumer<Set<String>> oyente : OYENTES_CAMBIOS) {
+                try {
+                    oyente.accept(tablas);
+                } catch (RuntimeException e) {
+                    System.err.println("Error notificando cambios en " + tablas + ":");
+                    e.printStackTrace();
+                }
+            }
+
+        } catch (SQLException e) {
+            // Se reabre la conexión en el siguiente sondeo
+            System.err.println("Error vigilando cambios de la base de datos:");
+            e.printStackTrace();
+            cerrarVigilancia();
+        }
+    }
+
+    private static long leerDataVersion() throws SQLException {
+        try (Statement stmt = conexionVigilancia.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA data_version")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    /**
+     * Indica si el salto de versión (desde, hasta] de la tabla se explica entero por escrituras de este
+     * proceso. Los tramos se leen con el cerrojo de escritura tomado, así que ningún commit de otro proceso
+     * cae dentro de ellos. Una transacción propia que aún no ha anotado su tramo, o que no pasa por
+     * executeWrite, cuenta como ajena: en ese caso se avisa de más, nunca de menos.
+     */
+    private static boolean cubiertoPorEscriturasPropias(String tabla, long desde, long hasta) {
+        List<long[]> tramos = new ArrayList<>(TRAMOS_PROPIOS.getOrDefault(tabla, List.of()));
+        tramos.sort(Comparator.comparingLong(t -> t[0]));
+        long alcanzada = desde;
+        for (long[] tramo : tramos) {
+            if (tramo[0] <= alcanzada && tramo[1] > alcanzada) {
+                alcanzada = tramo[1];
+            }
+        }
+        return alcanzada >= hasta;
+    }
+
+    /**
+     * Anota lo que ha escrito una transacción de este proceso, con las versiones leídas dentro de ella
+     * justo después de tomar el cerrojo de escritura y justo antes del COMMIT.
+     */
+    private static void registrarEscrituraPropia(Map<String, Long> antes, Map<String, Long> despues) {
+        synchronized (TRAMOS_PROPIOS) {
+            despues.forEach((tabla, version) -> {
+                Long anterior = antes.get(tabla);
+                if (anterior != null && version > anterior) {
+                    TRAMOS_PROPIOS.computeIfAbsent(tabla, _ -> new ArrayList<>()).add(new long[]{anterior, version});
+                }
+            });
+        }
+    }
+
+    private static Map<String, Long> leerVersionesTablas(Connection conn) throws SQLException {
+        Map<String, Long> versiones = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT tabla, version FROM cambios_tablas")) {
+            while (rs.next()) {
+                versiones.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return versiones;
+    }
+
+    /**
+     * Transacción de escritura que sabe qué versiones de 'cambios_tablas' ha producido.
+     * La abre ella misma y toma enseguida el cerrojo de escritura (equivale a BEGIN IMMEDIATE), así que
+     * entre la lectura de versiones del principio y la de justo antes del COMMIT ningún otro proceso
+     * puede confirmar nada. El trabajo recibe un proxy de la conexión: su setAutoCommit(false) se suma
+     * a esta transacción y su commit() pasa por aquí para tomar la segunda lectura. Un trabajo que no
+     * gestiona la transacción se confirma entero al terminar.
+     */
+    private static final class EscrituraVigilada implements InvocationHandler {
+
+        private final Connection conn;
+        // Versiones al tomar el cerrojo; null cuando la transacción vigilada ya ha terminado
+        private Map<String, Long> antes;
+        // Modo en el que el trabajo cree estar
+        private boolean autoCommit = true;
+
+        EscrituraVigilada(Connection conn) {
+            this.conn = conn;
+        }
+
+        <T> T ejecutar(SqlWork<T> work) throws SQLException {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                // No cambia nada, pero como cualquier UPDATE toma el cerrojo de escritura de la base de datos
+                stmt.executeUpdate("UPDATE cambios_tablas SET version = version WHERE 0");
+            }
+            antes = leerVersionesTablas(conn);
+
+            T resultado = work.execute((Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this));
+            // Si el trabajo pasó a transacción manual y no confirmó, el pool la deshace al devolver la conexión
+            if (antes != null && autoCommit) {
+                confirmar();
+            }
+            return resultado;
+        }
+
+        private void confirmar() throws SQLException {
+            Map<String, Long> despues = leerVersionesTablas(conn);
+            conn.commit();
+            registrarEscrituraPropia(antes, despues);
+            antes = null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (antes != null) {
+                switch (method.getName()) {
+                    case "setAutoCommit":
+                        autoCommit = (Boolean) args[0];
+                        if (autoCommit) {
+                            // Volver a autocommit confirma lo pendiente, como en JDBC
+                            confirmar();
+                            conn.setAutoCommit(true);
+                        }
+                        return null;
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "commit":
+                        confirmar();
+                        return null;
+                    case "rollback":
+                        // Deshacerlo todo termina la transacción vigilada sin nada que anotar
+                        if (args == null) {
+                            antes = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static synchronized void cerrarVigilancia() {
+        if (conexionVigilancia != null) {
+            try {
+                conexionVigilancia.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            conexionVigilancia = null;
+        }
+    }
+
+    /**
+     * Estadísticas actuales de los pools de escritura y lectura (latencia de préstamo, utilización, fugas).
+     */
+    public static List<ConnectionPool.Stats> getPoolStats() {
+        return List.of(ESCRITURA.getStats(), LECTURA.getStats());
     }
 }
\ No newline at end of file
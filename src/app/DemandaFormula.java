@@ -0,0 +1,32 @@
+package app;
+
+/**
+ * Demanda de una fórmula en una unidad durante un periodo, leída de los resúmenes de demanda.
+ *
+ * @param periodo   Día (yyyy-MM-dd), lunes de la semana (yyyy-MM-dd) o mes (yyyy-MM), según la agrupación.
+ * @param idFormula Fórmula del catálogo, o 0 para el conjunto de fórmulas personalizadas.
+ * @param formula   Nombre de la fórmula ("Personalizada" para las personalizadas).
+ * @param unidad    Unidad pedida ("" si no se indicó).
+ * @param pedidos   Número de pedidos no cancelados.
+ * @param cantidad  Suma de las cantidades pedidas.
+ */
+public record DemandaFormula(String periodo, int idFormula, String formula, String unidad, long pedidos, long cantidad) {
+
+    /**
+     * Agrupación temporal del informe de demanda.
+     */
+    public enum Periodo {
+        DIA("Día"), SEMANA("Semana"), MES("Mes");
+
+        private final String etiqueta;
+
+        Periodo(String etiqueta) {
+            this.etiqueta = etiqueta;
+        }
+
+        @Override
+        public String toString() {
+            return etiqueta;
+        }
+    }
+}
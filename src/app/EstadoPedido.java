@@ -0,0 +1,120 @@
+package app;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estados de un pedido, en el orden de su ciclo de vida.
+ *
+ * En la base de datos se guarda el código entero (ver migración 10), no el texto: cada fila y cada
+ * entrada de índice ocupa un byte en lugar de hasta 14, y los filtros comparan enteros.
+ * Los códigos ya guardados nunca deben cambiar; un estado nuevo necesita un código nuevo.
+ *
+ * Las transiciones permitidas están en una tabla EnumMap: PedidoService solo aplica un cambio
+ * si el estado actual del pedido está entre los que pueden llevar al nuevo.
+ */
+public enum EstadoPedido {
+
+    PENDIENTE(0, "Pendiente"),
+    EN_PREPARACION(1, "En preparación"),
+    LISTO(2, "Listo"),
+    ENTREGADO(3, "Entregado"),
+    CANCELADO(4, "Cancelado");
+
+    private static final EstadoPedido[] POR_CODIGO = new EstadoPedido[values().length];
+
+    // Estados a los que se puede pasar desde cada uno; Entregado y Cancelado son finales
+    private static final Map<EstadoPedido, Set<EstadoPedido>> SIGUIENTES = new EnumMap<>(EstadoPedido.class);
+
+    // Tabla inversa: desde qué estados se puede llegar a cada uno (para validar en la propia sentencia UPDATE)
+    private static final Map<EstadoPedido, Set<EstadoPedido>> ANTERIORES = new EnumMap<>(EstadoPedido.class);
+
+    static {
+        for (EstadoPedido e : values()) {
+            POR_CODIGO[e.codigo] = e;
+        }
+
+        SIGUIENTES.put(PENDIENTE, EnumSet.of(EN_PREPARACION, CANCELADO));
+        SIGUIENTES.put(EN_PREPARACION, EnumSet.of(LISTO, CANCELADO));
+        SIGUIENTES.put(LISTO, EnumSet.of(ENTREGADO, CANCELADO));
+        SIGUIENTES.put(ENTREGADO, EnumSet.noneOf(EstadoPedido.class));
+        SIGUIENTES.put(CANCELADO, EnumSet.noneOf(EstadoPedido.class));
+
+        for (EstadoPedido e : values()) {
+            ANTERIORES.put(e, EnumSet.noneOf(EstadoPedido.class));
+        }
+        SIGUIENTES.forEach((desde, hacia) -> hacia.forEach(h -> ANTERIORES.get(h).add(desde)));
+    }
+
+    private final int codigo;
+    private final String etiqueta;
+
+    EstadoPedido(int codigo, String etiqueta) {
+        this.codigo = codigo;
+        this.etiqueta = etiqueta;
+    }
+
+    /**
+     * Código entero con el que se guarda en la base de datos.
+     */
+    public int codigo() {
+        return codigo;
+    }
+
+    public String etiqueta() {
+        return etiqueta;
+    }
+
+    /**
+     * Estados a los que puede pasar un pedido en este estado.
+     */
+    public Set<EstadoPedido> siguientes() {
+        return Collections.unmodifiableSet(SIGUIENTES.get(this));
+    }
+
+    /**
+     * Estados desde los que se puede llegar a este.
+     */
+    public Set<EstadoPedido> anteriores() {
+        return Collections.unmodifiableSet(ANTERIORES.get(this));
+    }
+
+    public boolean puedePasarA(EstadoPedido nuevo) {
+        return SIGUIENTES.get(this).contains(nuevo);
+    }
+
+    /**
+     * Estado correspondiente a un código guardado.
+     * @throws IllegalArgumentException si el código no corresponde a ningún estado.
+     */
+    public static EstadoPedido deCodigo(int codigo) {
+        if (codigo < 0 || codigo >= POR_CODIGO.length) {
+            throw new IllegalArgumentException("Código de estado desconocido: " + codigo);
+        }
+        return POR_CODIGO[codigo];
+    }
+
+    /**
+     * Estado a partir de su nombre visible, sin distinguir mayúsculas (para CSV y línea de comandos).
+     * @throws IllegalArgumentException si el texto no corresponde a ningún estado.
+     */
+    public static EstadoPedido deEtiqueta(String texto) {
+        String buscado = texto.trim().toLowerCase(Locale.ROOT);
+        for (EstadoPedido e : values()) {
+            if (e.etiqueta.toLowerCase(Locale.ROOT).equals(buscado)) {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("Estado desconocido: '" + texto + "'");
+    }
+
+    // Las listas desplegables y las tablas muestran el nombre visible
+    @Override
+    public String toString() {
+        return etiqueta;
+    }
+}
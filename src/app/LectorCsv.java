@@ -0,0 +1,165 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lector de CSV en streaming (RFC 4180): devuelve un registro cada vez, así que la memoria usada
+ * no depende del tamaño del archivo. Admite campos entre comillas con separadores, comillas dobles
+ * ("") y saltos de línea dentro, finales de línea \n o \r\n y la marca BOM inicial de Excel.
+ */
+public class LectorCsv implements Closeable {
+
+    private final Reader reader;
+    private final char separador;
+
+    // Búfer propio para no pagar una llamada al Reader por carácter
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int lim;
+
+    private long lineasLeidas;
+    private long lineaRegistro;
+    private boolean inicio = true;
+
+    public LectorCsv(Reader reader, char separador) {
+        this.reader = reader;
+        this.separador = separador;
+    }
+
+    /**
+     * Lee el siguiente registro.
+     * @return Los campos del registro, o null al llegar al final del archivo.
+     */
+    public List<String> siguiente() throws IOException {
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        boolean hayDatos = false;
+        lineaRegistro = lineasLeidas + 1;
+
+        while (true) {
+            int c = leer();
+            if (c == -1) {
+                if (!hayDatos) {
+                    return null;
+                }
+                campos.add(campo.toString());
+                return campos;
+            }
+            hayDatos = true;
+
+            if (entreComillas) {
+                if (c == '"') {
+                    if (mirar() == '"') {
+                        leer();
+                        campo.append('"');
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        lineasLeidas++;
+                    }
+                    campo.append((char) c);
+                }
+            } else if (c == '"' && campo.isEmpty()) {
+                entreComillas = true;
+            } else if (c == separador) {
+                campos.add(campo.toString());
+                campo.setLength(0);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && mirar() == '\n') {
+                    leer();
+                }
+                lineasLeidas++;
+                campos.add(campo.toString());
+                return campos;
+            } else {
+                campo.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Número de línea del archivo en el que empieza el último registro leído (desde 1).
+     */
+    public long getLinea() {
+        return lineaRegistro;
+    }
+
+    /**
+     * Indica si un registro está vacío (línea en blanco), para poder saltarlo.
+     */
+    public static boolean esVacio(List<String> registro) {
+        return registro.size() == 1 && registro.get(0).isBlank();
+    }
+
+    /**
+     * Mira la primera línea sin consumirla y elige el separador: si tiene más ';' que ','
+     * el archivo viene de un Excel en español.
+     */
+    public static char detectarSeparador(BufferedReader br) throws IOException {
+        br.mark(64 * 1024);
+        String primera = br.readLine();
+        br.reset();
+        if (primera == null) {
+            return ',';
+        }
+        long puntoYComa = primera.chars().filter(c -> c == ';').count();
+        long comas = primera.chars().filter(c -> c == ',').count();
+        return puntoYComa > comas ? ';' : ',';
+    }
+
+    /**
+     * Prepara un valor para escribirlo en un CSV: lo pone entre comillas si contiene
+     * el separador, comillas o saltos de línea.
+     */
+    public static String escapar(String valor, char separador) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.indexOf(separador) < 0 && valor.indexOf('"') < 0
+                && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return '"' + valor.replace("\"", "\"\"") + '"';
+    }
+
+    private int leer() throws IOException {
+        if (pos == lim && !rellenar()) {
+            return -1;
+        }
+        char c = buffer[pos++];
+        if (inicio) {
+            inicio = false;
+            if (c == '\uFEFF') {
+                return leer();
+            }
+        }
+        return c;
+    }
+
+    private int mirar() throws IOException {
+        if (pos == lim && !rellenar()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private boolean rellenar() throws IOException {
+        int n = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        lim = Math.max(n, 0);
+        return n > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
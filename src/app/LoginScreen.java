@@ -9,6 +9,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -88,6 +89,10 @@ public class LoginScreen {
         btnLogin.getStyleClass().add("btn-primary");
         btnLogin.setMaxWidth(Double.MAX_VALUE);
 
+        // Indicador que se muestra en el botón mientras se comprueban las credenciales
+        ProgressIndicator progreso = new ProgressIndicator();
+        progreso.setMaxSize(16, 16);
+
         Button btnRegistro = new Button("Registrarse");
         btnRegistro.getStyleClass().add("btn-secondary");
         btnRegistro.setMaxWidth(Double.MAX_VALUE);
@@ -103,19 +108,40 @@ public class LoginScreen {
                 return;
             }
 
-            User user = authService.login(email, pass);
-            if (user == null) {
-                lblError.setText("Email o contraseña incorrectos.");
-                return;
-            }
-
+            // La comprobación BCrypt es lenta a propósito: se hace en segundo plano con la pantalla bloqueada
             lblError.setText("");
-            // Redirección según el rol del usuario autenticado
-            if ("admin".equalsIgnoreCase(user.getRol())) {
-                AdminWindow.show(stage, user);
-            } else {
-                UserWindow.show(stage, user);
-            }
+            txtEmail.setDisable(true);
+            txtPass.setDisable(true);
+            btnLogin.setDisable(true);
+            btnLogin.setText("Comprobando...");
+            btnLogin.setGraphic(progreso);
+
+            authService.loginAsync(email, pass).whenComplete((sesion, error) -> BackgroundLoader.onFxThread(() -> {
+                txtEmail.setDisable(false);
+                txtPass.setDisable(false);
+                btnLogin.setDisable(false);
+                btnLogin.setText("Entrar");
+                btnLogin.setGraphic(null);
+
+                if (error != null) {
+                    System.err.println("Error iniciando sesión:");
+                    error.printStackTrace();
+                    lblError.setText("No se pudo iniciar sesión. Inténtalo de nuevo.");
+                    return;
+                }
+                if (sesion == null) {
+                    lblError.setText("Email o contraseña incorrectos.");
+                    return;
+                }
+
+                // Redirección según el rol del usuario autenticado
+                User user = sesion.usuario();
+                if ("admin".equalsIgnoreCase(user.getRol())) {
+                    AdminWindow.show(stage, user);
+                } else {
+                    UserWindow.show(stage, user, sesion.paciente());
+                }
+            }));
         });
 
         btnRegistro.setOnAction(_ -> showRegistroDialog(stage));
@@ -1,9 +1,20 @@
 package app;
 
+import app.service.CambiosExternos;
+import app.service.ExportadorPedidos;
+import app.service.ImportadorPacientes;
+import app.service.ImportadorPedidos;
+import app.service.PedidoService;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 import atlantafx.base.theme.CupertinoLight;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Clase principal que actúa como punto de entrada de la aplicación (Entry Point).
  * Se encarga de la inicialización del sistema, la base de datos y el arranque de la interfaz.
@@ -26,12 +37,33 @@ public class MainApp extends Application {
 
     /**
      * Método principal de ejecución.
+     * Modos consola (sin interfaz):
+     *  --importar-pedidos archivo.csv [informe_errores.csv]
+     *  --importar-pacientes archivo.csv [informe_errores.csv]
+     *  --exportar-pedidos destino.csv|destino.jsonl [--desde yyyy-MM-dd] [--hasta yyyy-MM-dd] [--estado E]...
+     *  --reconstruir-resumenes
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--importar-pedidos")) {
+            System.exit(importarPedidos(args));
+        }
+        if (args.length > 0 && args[0].equals("--importar-pacientes")) {
+            System.exit(importarPacientes(args));
+        }
+        if (args.length > 0 && args[0].equals("--exportar-pedidos")) {
+            System.exit(exportarPedidos(args));
+        }
+        if (args.length > 0 && args[0].equals("--reconstruir-resumenes")) {
+            System.exit(reconstruirResumenes());
+        }
+
         try {
             // Inicialización de la base de datos SQLite antes de lanzar la interfaz.
             // Esto asegura que las tablas y el usuario administrador existan desde el primer segundo.
             Database.initializeDatabase();
+
+            // Vigilancia de los cambios hechos por otros terminales sobre el mismo archivo
+            CambiosExternos.iniciar();
         } catch (Exception e) {
             // Manejo de excepciones críticas durante el arranque.
             System.err.println("Error crítico al inicializar la base de datos:");
@@ -41,4 +73,130 @@ public class MainApp extends Application {
         // Lanzamiento del ciclo de vida de la aplicación JavaFX.
         launch(args);
     }
-}
\ No newline at end of file
+
+    /**
+     * Importación de pedidos históricos desde la línea de comandos.
+     * @return Código de salida: 0 si todo se importó, 1 si hubo filas rechazadas, 2 si la importación falló.
+     */
+    private static int importarPedidos(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Uso: --importar-pedidos archivo.csv [informe_errores.csv]");
+            return 2;
+        }
+        Path csv = Path.of(args[1]);
+        Path informe = args.length > 2 ? Path.of(args[2]) : Path.of(args[1] + ".errores.csv");
+
+        try {
+            Database.initializeDatabase();
+            ImportadorPedidos.Progreso fin = new ImportadorPedidos().importar(csv, informe,
+                    progreso -> System.out.println("Importando pedidos: " + progreso));
+            System.out.println("Importación terminada: " + fin);
+            if (fin.errores() > 0) {
+                System.out.println("Filas rechazadas en: " + informe.toAbsolutePath());
+                return 1;
+            }
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Error importando pedidos:");
+            e.printStackTrace();
+            return 2;
+        }
+    }
+
+    /**
+     * Alta masiva de pacientes desde la línea de comandos.
+     * @return Código de salida: 0 si se dieron todos de alta, 1 si hubo filas rechazadas o duplicadas, 2 si falló.
+     */
+    private static int importarPacientes(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Uso: --importar-pacientes archivo.csv [informe_errores.csv]");
+            return 2;
+        }
+        Path csv = Path.of(args[1]);
+        Path informe = args.length > 2 ? Path.of(args[2]) : Path.of(args[1] + ".errores.csv");
+
+        try {
+            Database.initializeDatabase();
+            ImportadorPacientes.Progreso fin = new ImportadorPacientes().importar(csv, informe,
+                    progreso -> System.out.println("Alta de pacientes: " + progreso));
+            System.out.println("Alta masiva terminada: " + fin);
+            if (fin.errores() + fin.duplicados() > 0) {
+                System.out.println("Filas rechazadas en: " + informe.toAbsolutePath());
+                return 1;
+            }
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Error en el alta masiva de pacientes:");
+            e.printStackTrace();
+            return 2;
+        }
+    }
+
+    /**
+     * Exportación de pedidos desde la línea de comandos; el formato sale de la extensión del destino.
+     * @return Código de salida: 0 si la exportación terminó, 2 si falló o los argumentos no son válidos.
+     */
+    private static int exportarPedidos(String[] args) {
+        String uso = "Uso: --exportar-pedidos destino.csv|destino.jsonl [--desde yyyy-MM-dd] [--hasta yyyy-MM-dd] [--estado E]...";
+        if (args.length < 2) {
+            System.err.println(uso);
+            return 2;
+        }
+        Path destino = Path.of(args[1]);
+        LocalDate desde = null;
+        LocalDate hasta = null;
+        Set<EstadoPedido> estados = new HashSet<>();
+
+        try {
+            for (int i = 2; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Falta el valor de " + args[i]);
+                }
+                switch (args[i]) {
+                    case "--desde" -> desde = LocalDate.parse(args[i + 1]);
+                    case "--hasta" -> hasta = LocalDate.parse(args[i + 1]);
+                    case "--estado" -> estados.add(EstadoPedido.deEtiqueta(args[i + 1]));
+                    default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(uso);
+            return 2;
+        }
+
+        try {
+            Database.initializeDatabase();
+            ExportadorPedidos.Progreso fin = new ExportadorPedidos().exportar(
+                    new PedidoFiltro(estados, desde, hasta), ExportadorPedidos.Formato.deArchivo(destino), destino,
+                    progreso -> System.out.println("Exportando pedidos: " + progreso));
+            System.out.println("Exportación terminada: " + fin + " en " + destino.toAbsolutePath());
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Error exportando pedidos:");
+            e.printStackTrace();
+            return 2;
+        }
+    }
+
+    /**
+     * Recalcula los contadores por estado y los resúmenes de demanda desde la tabla de pedidos,
+     * p. ej. tras cargar pedidos históricos directamente en la base de datos.
+     * @return Código de salida: 0 si se reconstruyeron, 2 si falló.
+     */
+    private static int reconstruirResumenes() {
+        try {
+            Database.initializeDatabase();
+            long inicio = System.nanoTime();
+            if (!new PedidoService().reconstruirResumenes()) {
+                return 2;
+            }
+            System.out.println("Resúmenes reconstruidos en " + (System.nanoTime() - inicio) / 1_000_000 + " ms.");
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Error reconstruyendo los resúmenes:");
+            e.printStackTrace();
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package app;
+
+/**
+ * Datos de un paciente que se va a dar de alta junto con su usuario de acceso.
+ * Se usa en las altas masivas, donde la contraseña llega ya cifrada con BCrypt.
+ *
+ * @param passwordHash Hash BCrypt de la contraseña inicial.
+ */
+public record NuevoPaciente(String nombre, String email, String telefono, String passwordHash) { }
@@ -0,0 +1,13 @@
+package app;
+
+/**
+ * Datos completos de un pedido que se va a insertar, incluidos fecha y estado.
+ * Se usa en las altas masivas (importación de históricos), donde no se toman los valores por defecto.
+ *
+ * @param idFormula            Fórmula del catálogo, o null si es personalizada.
+ * @param formulaPersonalizada Nombre de la fórmula personalizada, o null si es del catálogo.
+ * @param fecha                Instante del pedido en milisegundos desde 1970.
+ */
+public record NuevoPedido(int idPaciente, Integer idFormula, String formulaPersonalizada,
+                          int cantidad, String unidad, String observaciones,
+                          long fecha, EstadoPedido estado) { }
@@ -0,0 +1,21 @@
+package app;
+
+import java.util.List;
+
+/**
+ * Página de un listado de pedidos obtenida por paginación keyset.
+ *
+ * @param pedidos   Pedidos de la página, en orden (fecha DESC, id DESC).
+ * @param anterior  Cursor para pedir la página anterior, o null si esta es la primera.
+ * @param siguiente Cursor para pedir la página siguiente, o null si esta es la última.
+ */
+public record PaginaPedidos(List<Pedido> pedidos, PedidoCursor anterior, PedidoCursor siguiente) {
+
+    public boolean hayAnterior() {
+        return anterior != null;
+    }
+
+    public boolean haySiguiente() {
+        return siguiente != null;
+    }
+}
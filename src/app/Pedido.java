@@ -1,5 +1,9 @@
 package app;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
 /**
  * Modelo de datos que representa un Pedido de una fórmula magistral.
  * Esta clase consolida la información necesaria para ser visualizada en las tablas 
@@ -7,24 +11,30 @@ package app;
  */
 public class Pedido {
 
+    // Formato de presentación de la fecha, en la zona horaria del equipo
+    private static final DateTimeFormatter FORMATO_FECHA =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
     // Atributos privados para representar el estado y los detalles del pedido
     private int id;
     private int idPaciente;
     private String nombrePaciente;
-    private String fecha;
+    private long fecha;     // Instante del pedido en milisegundos desde 1970 (ver migración 9)
+    private String fechaTexto;
     private String nombreFormula;
-    private String estado;
+    private EstadoPedido estado;
     private int cantidad;
     private String unidad;
     private String observaciones;
+    private long version;   // Versión de cambio (ver migración 3); crece con cada alta o cambio de estado
 
     /**
      * Constructor completo para inicializar un Pedido con todos sus detalles.
      * Se utiliza para mapear los resultados de las consultas JOIN en la base de datos.
      */
     public Pedido(int id, int idPaciente, String nombrePaciente,
-                  String fecha, String nombreFormula,
-                  String estado, int cantidad, String unidad, String observaciones) {
+                  long fecha, String nombreFormula,
+                  EstadoPedido estado, int cantidad, String unidad, String observaciones) {
         this.id = id;
         this.idPaciente = idPaciente;
         this.nombrePaciente = nombrePaciente;
@@ -41,12 +51,31 @@ public class Pedido {
     public int getId() { return id; }
     public int getIdPaciente() { return idPaciente; }
     public String getNombrePaciente() { return nombrePaciente; }
-    public String getFecha() { return fecha; }
+    public long getFechaMs() { return fecha; }
     public String getNombreFormula() { return nombreFormula; }
-    public String getEstado() { return estado; }
+    public EstadoPedido getEstado() { return estado; }
     public int getCantidad() { return cantidad; }
     public String getUnidad() { return unidad; }
     public String getObservaciones() { return observaciones; }
+    public long getVersion() { return version; }
+
+    /**
+     * Fecha para mostrar ("yyyy-MM-dd HH:mm:ss" en hora local). Se formatea la primera vez que se pide,
+     * así los pedidos que nunca llegan a pintarse no pagan el formateo.
+     */
+    public String getFecha() {
+        if (fechaTexto == null) {
+            fechaTexto = formatearFecha(fecha);
+        }
+        return fechaTexto;
+    }
+
+    /**
+     * Formatea un instante en milisegundos como se muestra en las tablas y exportaciones.
+     */
+    public static String formatearFecha(long fechaMs) {
+        return FORMATO_FECHA.format(Instant.ofEpochMilli(fechaMs));
+    }
 
     /**
      * Método de utilidad diseñado para la capa de presentación (UI).
@@ -56,5 +85,7 @@ public class Pedido {
     }
 
     // Permite la actualización del estado del pedido por parte del administrador
-    public void setEstado(String estado) { this.estado = estado; }
+    public void setEstado(EstadoPedido estado) { this.estado = estado; }
+
+    public void setVersion(long version) { this.version = version; }
 }
\ No newline at end of file
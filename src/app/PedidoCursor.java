@@ -0,0 +1,20 @@
+package app;
+
+/**
+ * Posición dentro de un listado de pedidos ordenado por (fecha DESC, id DESC).
+ * Se usa para la paginación por clave ("keyset"): en lugar de saltar N filas con OFFSET,
+ * la siguiente página empieza justo después de este par (fecha, id), así el coste de cada
+ * página no depende de cuántos pedidos haya en la tabla.
+ *
+ * @param fecha Fecha del pedido de referencia, en milisegundos desde 1970.
+ * @param id    Identificador del pedido de referencia (desempata pedidos con la misma fecha).
+ */
+public record PedidoCursor(long fecha, int id) {
+
+    /**
+     * Crea el cursor que apunta a un pedido concreto.
+     */
+    public static PedidoCursor de(Pedido p) {
+        return new PedidoCursor(p.getFechaMs(), p.getId());
+    }
+}
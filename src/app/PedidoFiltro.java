@@ -0,0 +1,55 @@
+package app;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Criterios para acotar un listado de pedidos en la propia consulta SQL.
+ * Los criterios vacíos (conjunto vacío o null) no filtran.
+ *
+ * @param estados        Estados admitidos; vacío para todos.
+ * @param desde          Primer día incluido, o null para no acotar por abajo.
+ * @param hasta          Último día incluido, o null para no acotar por arriba.
+ * @param idPaciente     Solo los pedidos de este paciente, o null para todos.
+ * @param idFormula      Solo los pedidos de esta fórmula del catálogo, o null para todas.
+ * @param personalizadas true para solo fórmulas personalizadas, false para solo las del catálogo, null para ambas.
+ */
+public record PedidoFiltro(Set<EstadoPedido> estados, LocalDate desde, LocalDate hasta,
+                           Integer idPaciente, Integer idFormula, Boolean personalizadas) {
+
+    /** Filtro que no descarta ningún pedido. */
+    public static final PedidoFiltro TODOS = new PedidoFiltro(Set.of(), null, null);
+
+    public PedidoFiltro {
+        estados = estados == null ? Set.of() : Set.copyOf(estados);
+    }
+
+    public PedidoFiltro(Set<EstadoPedido> estados, LocalDate desde, LocalDate hasta) {
+        this(estados, desde, hasta, null, null, null);
+    }
+
+    public PedidoFiltro conEstados(Set<EstadoPedido> estados) {
+        return new PedidoFiltro(estados, desde, hasta, idPaciente, idFormula, personalizadas);
+    }
+
+    public PedidoFiltro entre(LocalDate desde, LocalDate hasta) {
+        return new PedidoFiltro(estados, desde, hasta, idPaciente, idFormula, personalizadas);
+    }
+
+    public PedidoFiltro delPaciente(Integer idPaciente) {
+        return new PedidoFiltro(estados, desde, hasta, idPaciente, idFormula, personalizadas);
+    }
+
+    public PedidoFiltro deFormula(Integer idFormula) {
+        return new PedidoFiltro(estados, desde, hasta, idPaciente, idFormula, personalizadas);
+    }
+
+    public PedidoFiltro soloPersonalizadas(Boolean personalizadas) {
+        return new PedidoFiltro(estados, desde, hasta, idPaciente, idFormula, personalizadas);
+    }
+
+    public boolean isVacio() {
+        return estados.isEmpty() && desde == null && hasta == null
+                && idPaciente == null && idFormula == null && personalizadas == null;
+    }
+}
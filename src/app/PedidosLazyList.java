@@ -0,0 +1,387 @@
+package app;
+
+import app.service.PedidoService;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lista observable de pedidos que se carga por páginas a medida que la tabla las necesita.
+ * La TableView ya solo crea celdas para las filas visibles; esta lista completa la idea en el
+ * modelo de datos: size() sale de un COUNT y get(i) solo consulta la página que contiene la fila.
+ *
+ * - Las páginas contiguas a una ya cargada se piden por keyset (fecha, id); solo los saltos
+ *   arbitrarios (arrastrar la barra de desplazamiento) usan LIMIT/OFFSET.
+ * - Todas las consultas se hacen en segundo plano (BackgroundLoader): mientras una página
+ *   llega, sus filas aparecen vacías y se rellenan al recibirla.
+ * - Al acercarse al final de una página se precarga la siguiente.
+ * - Las páginas alejadas de la zona visible se descartan para acotar la memoria.
+ * - La ordenación (por fecha) y el filtro los resuelve la base de datos.
+ * - actualizar() aplica solo los pedidos creados o modificados desde la última sincronización
+ *   (según su versión de cambio), conservando la selección, el desplazamiento y las páginas cargadas.
+ */
+public class PedidosLazyList extends ObservableListBase<Pedido> {
+
+    private static final int TAMANO_PAGINA = 200;
+    private static final int MAX_DISTANCIA_PAGINAS = 5;
+    private static final int MAX_PAGINAS = 12;
+    // Con más altas que estas de golpe sale más a cuenta recontar que calcular la posición de cada una
+    private static final int MAX_ALTAS_INCREMENTALES = 50;
+
+    private final PedidoService pedidoService;
+
+    // Estado de la lista; solo se toca desde el hilo de JavaFX
+    private final Map<Integer, List<Pedido>> paginas = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Integer> cargando = new HashSet<>();
+    private final ReadOnlyBooleanWrapper recontando = new ReadOnlyBooleanWrapper(false);
+
+    private int total;
+    private boolean ascendente;
+    private PedidoFiltro filtro = PedidoFiltro.TODOS;
+    private int generacion;
+
+    // Punto de sincronización con la base de datos para los refrescos incrementales
+    private long version = -1;
+    private int ultimoId;
+    private boolean actualizando;
+    private boolean actualizacionPendiente;
+
+    // Estado de la base de datos leído al recontar
+    private record Sincronizacion(long version, int ultimoId, int total) { }
+
+    // Alta detectada en un refresco incremental, con la posición que ocupa en el orden actual
+    private record Alta(int posicion, Pedido pedido) { }
+
+    // Diferencias a aplicar a la lista en un refresco incremental
+    private record Delta(long version, List<Alta> altas, List<Pedido> modificados, int total) { }
+
+    public PedidosLazyList(PedidoService pedidoService) {
+        this.pedidoService = pedidoService;
+        refrescar();
+    }
+
+    @Override
+    public int size() {
+        return total;
+    }
+
+    @Override
+    public Pedido get(int index) {
+        if (index < 0 || index >= total) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        int numPagina = index / TAMANO_PAGINA;
+        List<Pedido> pagina = paginas.get(numPagina);
+        if (pagina == null) {
+            // La fila se muestra vacía hasta que llegue su página
+            solicitarPagina(numPagina);
+            return null;
+        }
+
+        // Al entrar en el último cuarto de la página se adelanta la carga de la siguiente
+        int posicion = index % TAMANO_PAGINA;
+        if (posicion >= TAMANO_PAGINA * 3 / 4) {
+            solicitarPagina(numPagina + 1);
+        }
+
+        // Si la tabla cambió mientras tanto, la página puede ser más corta que lo esperado
+        return posicion < pagina.size() ? pagina.get(posicion) : null;
+    }
+
+    /**
+     * Indica si se está recontando la lista (carga inicial o refresco), para mostrar un indicador.
+     */
+    public ReadOnlyBooleanProperty recontandoProperty() {
+        return recontando.getReadOnlyProperty();
+    }
+
+    /**
+     * Cambia el sentido de la ordenación por fecha y recarga desde el principio.
+     */
+    public void setAscendente(boolean ascendente) {
+        if (this.ascendente != ascendente) {
+            this.ascendente = ascendente;
+            refrescar();
+        }
+    }
+
+    /**
+     * Cambia el filtro de la lista y recarga desde el principio; solo se consultan los pedidos que lo cumplen.
+     */
+    public void setFiltro(PedidoFiltro filtro) {
+        PedidoFiltro nuevo = filtro == null ? PedidoFiltro.TODOS : filtro;
+        if (!this.filtro.equals(nuevo)) {
+            this.filtro = nuevo;
+            refrescar();
+        }
+    }
+
+    public PedidoFiltro getFiltro() {
+        return filtro;
+    }
+
+    /**
+     * Vuelve a contar los pedidos en segundo plano y, al terminar, descarta las páginas cargadas.
+     */
+    public void refrescar() {
+        int generacionActual = ++generacion;
+        PedidoFiltro f = filtro;
+        recontando.set(true);
+
+        // La versión se lee antes que nada: lo que cambie después se recogerá en el siguiente actualizar()
+        BackgroundLoader.load(() -> new Sincronizacion(
+                pedidoService.getVersionPedidos(),
+                pedidoService.getUltimoIdPedido(),
+                pedidoService.contarPedidos(f)), sync -> {
+            if (generacionActual != generacion) {
+                return;
+            }
+            recontando.set(false);
+
+            int anterior = total;
+            paginas.clear();
+            cargando.clear();
+            total = sync.total();
+            version = sync.version();
+            ultimoId = sync.ultimoId();
+
+            beginChange();
+            if (anterior > 0) {
+                nextRemove(0, Collections.nCopies(anterior, (Pedido) null));
+            }
+            if (total > 0) {
+                nextAdd(0, total);
+            }
+            endChange();
+        });
+    }
+
+    /**
+     * Refresca la lista aplicando solo las diferencias desde la última sincronización:
+     * los pedidos modificados se sustituyen en su fila y las altas se insertan en su posición.
+     * Si no hay un punto de partida fiable (o las diferencias no cuadran con el recuento), recuenta.
+     */
+    public void actualizar() {
+        if (version < 0 || recontando.get()) {
+            refrescar();
+            return;
+        }
+        if (actualizando) {
+            actualizacionPendiente = true;
+            return;
+        }
+        actualizando = true;
+
+        int generacionActual = generacion;
+        long desde = version;
+        int ultimoIdConocido = ultimoId;
+        boolean asc = ascendente;
+        PedidoFiltro f = filtro;
+
+        BackgroundLoader.load(() -> calcularDelta(desde, ultimoIdConocido, asc, f), delta -> {
+            actualizando = false;
+            if (generacionActual == generacion) {
+                aplicarDelta(delta);
+            }
+            if (actualizacionPendiente) {
+                actualizacionPendiente = false;
+                actualizar();
+            }
+        });
+    }
+
+    // Consulta las diferencias en segundo plano; devuelve null si conviene recontar
+    private Delta calcularDelta(long desde, int ultimoIdConocido, boolean asc, PedidoFiltro f) {
+        CambiosPedidos cambios = pedidoService.getCambiosPedidos(desde);
+        // Con filtro, un pedido modificado puede entrar o salir del listado (p. ej. al cambiar de estado):
+        // no se sabe dónde colocarlo sin volver a consultar, así que se recuenta
+        if (!f.isVacio() && !cambios.pedidos().isEmpty()) {
+            return null;
+        }
+
+        List<Alta> altas = new ArrayList<>();
+        List<Pedido> modificados = new ArrayList<>();
+        for (Pedido p : cambios.pedidos()) {
+            if (p.getId() <= ultimoIdConocido) {
+                modificados.add(p);
+            } else if (altas.size() < MAX_ALTAS_INCREMENTALES) {
+                int posicion = pedidoService.getPosicionPedido(f, p, asc);
+                if (posicion < 0) {
+                    return null;
+                }
+                altas.add(new Alta(posicion, p));
+            } else {
+                return null;
+            }
+        }
+        altas.sort(Comparator.comparingInt(Alta::posicion));
+
+        return new Delta(cambios.version(), altas, modificados, pedidoService.contarPedidos(f));
+    }
+
+    // Aplica las diferencias en el hilo de JavaFX con un único evento de cambio
+    private void aplicarDelta(Delta delta) {
+        // Sin bajas de pedidos, el nuevo total debe ser exactamente el anterior más las altas
+        if (delta == null || delta.total() != total + delta.altas().size()) {
+            refrescar();
+            return;
+        }
+        version = delta.version();
+        if (delta.altas().isEmpty() && delta.modificados().isEmpty()) {
+            return;
+        }
+
+        beginChange();
+
+        // Las altas se insertan en orden creciente de su posición final
+        for (Alta alta : delta.altas()) {
+            insertarEn(alta.posicion(), alta.pedido());
+            total++;
+            ultimoId = Math.max(ultimoId, alta.pedido().getId());
+            nextAdd(alta.posicion(), alta.posicion() + 1);
+        }
+        if (!delta.altas().isEmpty()) {
+            // Las páginas en camino se pidieron con las posiciones anteriores a las altas
+            generacion++;
+            cargando.clear();
+        }
+
+        // Los modificados solo se sustituyen si su página está cargada; si no, ya llegarán al pedirla
+        Map<Integer, Integer> posicionPorId = new HashMap<>();
+        paginas.forEach((numPagina, pagina) -> {
+            for (int i = 0; i < pagina.size(); i++) {
+                posicionPorId.put(pagina.get(i).getId(), numPagina * TAMANO_PAGINA + i);
+            }
+        });
+        for (Pedido p : delta.modificados()) {
+            Integer posicion = posicionPorId.get(p.getId());
+            if (posicion != null) {
+                Pedido anterior = paginas.get(posicion / TAMANO_PAGINA).set(posicion % TAMANO_PAGINA, p);
+                nextSet(posicion, anterior);
+            }
+        }
+
+        endChange();
+    }
+
+    /**
+     * Inserta una fila en las páginas cargadas, desplazando una posición las filas que la siguen.
+     * La última fila de cada página pasa a ser la primera de la siguiente; si una página no está
+     * cargada no se sabe qué fila pasa a la siguiente, así que las posteriores se descartan.
+     */
+    private void insertarEn(int posicion, Pedido pedido) {
+        int primera = posicion / TAMANO_PAGINA;
+        int ultima = paginas.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+
+        Pedido arrastre = pedido;
+        for (int n = primera; n <= ultima; n++) {
+            List<Pedido> pagina = paginas.get(n);
+            if (pagina == null) {
+                arrastre = null;
+                continue;
+            }
+            if (arrastre == null) {
+                paginas.remove(n);
+                continue;
+            }
+            pagina.add(n == primera ? posicion % TAMANO_PAGINA : 0, arrastre);
+            arrastre = pagina.size() > TAMANO_PAGINA ? pagina.remove(TAMANO_PAGINA) : null;
+        }
+    }
+
+    /**
+     * Pide una página en segundo plano (si no está ya cargada o en camino) y, cuando llega,
+     * notifica a la tabla que sus filas han cambiado.
+     * Se aprovecha una página vecina ya cargada para continuar por keyset; si no hay, se usa la posición.
+     */
+    private void solicitarPagina(int numPagina) {
+        if (numPagina * TAMANO_PAGINA >= total || paginas.containsKey(numPagina) || !cargando.add(numPagina)) {
+            return;
+        }
+
+        int generacionActual = generacion;
+        boolean asc = ascendente;
+        PedidoFiltro f = filtro;
+
+        List<Pedido> previa = paginas.get(numPagina - 1);
+        Pedido ultimo = (previa != null && previa.size() == TAMANO_PAGINA) ? previa.get(previa.size() - 1) : null;
+        List<Pedido> posterior = paginas.get(numPagina + 1);
+        Pedido primero = (posterior != null && !posterior.isEmpty()) ? posterior.get(0) : null;
+
+        BackgroundLoader.load(() -> {
+            if (ultimo != null) {
+                return continuarDespuesDe(f, ultimo, asc);
+            }
+            if (primero != null) {
+                return continuarAntesDe(f, primero, asc);
+            }
+            return pedidoService.getTramoPedidos(f, numPagina * TAMANO_PAGINA, TAMANO_PAGINA, asc);
+        }, pagina -> {
+            cargando.remove(numPagina);
+            // Si entretanto se refrescó la lista, la página recibida ya no es válida
+            if (generacionActual != generacion) {
+                return;
+            }
+            // Copia propia: las páginas se modifican en los refrescos incrementales
+            paginas.put(numPagina, new ArrayList<>(pagina));
+            descartarPaginasLejanas(numPagina);
+
+            int desde = numPagina * TAMANO_PAGINA;
+            int hasta = Math.min(total, desde + TAMANO_PAGINA);
+            if (desde < hasta) {
+                beginChange();
+                nextReplace(desde, hasta, Collections.nCopies(hasta - desde, (Pedido) null));
+                endChange();
+            }
+        });
+    }
+
+    // Página que sigue a un pedido en el orden actual
+    private List<Pedido> continuarDespuesDe(PedidoFiltro f, Pedido ultimo, boolean ascendente) {
+        // En orden descendente, "después" son las filas más antiguas (página siguiente del keyset);
+        // en ascendente son las más recientes, que el repositorio devuelve como página anterior
+        List<Pedido> filas = new ArrayList<>(
+                pedidoService.getPaginaPedidos(f, PedidoCursor.de(ultimo), TAMANO_PAGINA, ascendente).pedidos());
+        if (ascendente) {
+            Collections.reverse(filas);
+        }
+        return filas;
+    }
+
+    // Página que precede a un pedido en el orden actual
+    private List<Pedido> continuarAntesDe(PedidoFiltro f, Pedido primero, boolean ascendente) {
+        List<Pedido> filas = new ArrayList<>(
+                pedidoService.getPaginaPedidos(f, PedidoCursor.de(primero), TAMANO_PAGINA, !ascendente).pedidos());
+        if (ascendente) {
+            Collections.reverse(filas);
+        }
+        return filas;
+    }
+
+    /**
+     * Descarta las páginas demasiado alejadas de la que se está viendo y, si aun así hay
+     * demasiadas, las menos usadas recientemente.
+     */
+    private void descartarPaginasLejanas(int actual) {
+        paginas.keySet().removeIf(p -> Math.abs(p - actual) > MAX_DISTANCIA_PAGINAS);
+
+        var it = paginas.keySet().iterator();
+        while (paginas.size() > MAX_PAGINAS && it.hasNext()) {
+            if (it.next() != actual) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package app;
+
+import java.util.Map;
+
+/**
+ * Recuento de pedidos por estado, leído de los contadores que mantienen los triggers.
+ *
+ * @param porEstado Pedidos en cada estado (todos los días).
+ * @param delDia    Pedidos de un día concreto en cada estado.
+ */
+public record ResumenPedidos(Map<EstadoPedido, Integer> porEstado, Map<EstadoPedido, Integer> delDia) {
+
+    public ResumenPedidos {
+        porEstado = Map.copyOf(porEstado);
+        delDia = Map.copyOf(delDia);
+    }
+
+    public int total(EstadoPedido estado) {
+        return porEstado.getOrDefault(estado, 0);
+    }
+
+    public int delDia(EstadoPedido estado) {
+        return delDia.getOrDefault(estado, 0);
+    }
+
+    public int total() {
+        return porEstado.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
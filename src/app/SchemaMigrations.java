@@ -0,0 +1,493 @@
+package app;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Migraciones versionadas del esquema de la base de datos.
+ * La versión aplicada se guarda en la cabecera del archivo SQLite (PRAGMA user_version).
+ * Al arrancar se ejecutan, en orden, solo las migraciones con versión superior a la guardada;
+ * cada una va en su propia transacción junto con la actualización de user_version,
+ * de forma que o se aplica entera o no se aplica.
+ *
+ * Para evolucionar el esquema basta con añadir una nueva entrada al final de MIGRACIONES.
+ * Nunca se deben modificar ni reordenar las migraciones ya publicadas.
+ */
+public class SchemaMigrations {
+
+    /**
+     * Paso de migración que trabaja sobre la conexión (ya dentro de la transacción).
+     */
+    @FunctionalInterface
+    interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Migración identificada por su número de versión.
+     */
+    record Migration(int version, String descripcion, MigrationStep paso) { }
+
+    // Estado en texto sin distinguir mayúsculas ni espacios (SQLite lower() solo afecta a ASCII; "ó" ya es minúscula)
+    private static final String ESTADO_TEXTO = "lower(trim(estado))";
+
+    // ---- Lista ordenada de migraciones ----
+    private static final List<Migration> MIGRACIONES = List.of(
+
+        new Migration(1, "Índices para las consultas más frecuentes", sql(
+            // Historial de un paciente: filtra por paciente y ya sale ordenado por fecha/id
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_paciente_fecha ON pedidos (id_paciente, fecha DESC, id DESC)",
+            // Listado global del administrador (ORDER BY fecha DESC, id DESC) sin ordenar en memoria
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_fecha ON pedidos (fecha DESC, id DESC)",
+            // Filtros por estado en un rango de fechas
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_estado_fecha ON pedidos (estado, fecha)",
+            // Búsqueda de la ficha de paciente al iniciar sesión
+            "CREATE INDEX IF NOT EXISTS idx_pacientes_usuario ON pacientes (id_usuario)"
+        )),
+
+        new Migration(2, "Contador de versiones por tabla para detectar cambios del catálogo", sql(
+            // Cada escritura sobre una tabla vigilada incrementa su versión (también desde otros procesos)
+            "CREATE TABLE IF NOT EXISTS cambios_tablas (" +
+            " tabla TEXT PRIMARY KEY," +
+            " version INTEGER NOT NULL DEFAULT 0" +
+            ") WITHOUT ROWID",
+            "INSERT OR IGNORE INTO cambios_tablas (tabla, version) VALUES ('formulas', 0)",
+            triggerVersion("formulas", "INSERT"),
+            triggerVersion("formulas", "UPDATE"),
+            triggerVersion("formulas", "DELETE")
+        )),
+
+        new Migration(3, "Versión de cambio por pedido para refrescos incrementales", sql(
+            // Cada alta o cambio de estado sella la fila con el siguiente valor del contador de 'pedidos',
+            // así "WHERE version > N" devuelve exactamente lo que cambió desde la última lectura
+            "ALTER TABLE pedidos ADD COLUMN version INTEGER NOT NULL DEFAULT 0",
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_version ON pedidos (version)",
+            "INSERT OR IGNORE INTO cambios_tablas (tabla, version) VALUES ('pedidos', 0)",
+            triggerSelloVersion("pedidos", "INSERT"),
+            triggerSelloVersion("pedidos", "UPDATE OF estado")
+        )),
+
+        new Migration(4, "Registro de cambios de pacientes y bajas de pedidos para la vigilancia entre procesos", sql(
+            "INSERT OR IGNORE INTO cambios_tablas (tabla, version) VALUES ('pacientes', 0)",
+            triggerVersion("pacientes", "INSERT"),
+            triggerVersion("pacientes", "UPDATE"),
+            triggerVersion("pacientes", "DELETE"),
+            triggerVersion("pedidos", "DELETE")
+        )),
+
+        new Migration(5, "Búsqueda de texto completo (FTS5) en fórmulas y notas de pedidos", conn -> {
+            // Las bases creadas con versiones antiguas tienen la columna con tilde, que los repositorios no usan
+            renombrarColumna(conn, "formulas", "descripción", "descripcion");
+            sql(
+                // Índices externos ("content="): solo guardan el índice invertido, el texto sigue en la tabla.
+                // remove_diacritics hace que "capsula" encuentre "Cápsula"; prefix acelera las búsquedas "amox*"
+                "CREATE VIRTUAL TABLE IF NOT EXISTS formulas_fts USING fts5(nombre, descripcion," +
+                " content='formulas', content_rowid='id'," +
+                " tokenize='unicode61 remove_diacritics 2', prefix='2 3')",
+                triggerFts("formulas", "INSERT", "nombre", "descripcion"),
+                triggerFts("formulas", "DELETE", "nombre", "descripcion"),
+                triggerFts("formulas", "UPDATE", "nombre", "descripcion"),
+                "INSERT INTO formulas_fts (formulas_fts) VALUES ('rebuild')",
+
+                "CREATE VIRTUAL TABLE IF NOT EXISTS pedidos_fts USING fts5(observaciones, formula_personalizada," +
+                " content='pedidos', content_rowid='id'," +
+                " tokenize='unicode61 remove_diacritics 2', prefix='2 3')",
+                triggerFts("pedidos", "INSERT", "observaciones", "formula_personalizada"),
+                triggerFts("pedidos", "DELETE", "observaciones", "formula_personalizada"),
+                triggerFts("pedidos", "UPDATE", "observaciones", "formula_personalizada"),
+                "INSERT INTO pedidos_fts (pedidos_fts) VALUES ('rebuild')"
+            ).apply(conn);
+        }),
+
+        new Migration(6, "Índices compuestos para los filtros del listado de pedidos", sql(
+            // Cada filtro por igualdad va seguido de (fecha DESC, id DESC): la consulta recorre solo las filas
+            // que cumplen, ya ordenadas, y la paginación keyset sigue sin ordenar en memoria
+            "DROP INDEX IF EXISTS idx_pedidos_estado_fecha",
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_estado_fecha_id ON pedidos (estado, fecha DESC, id DESC)",
+            // También sirve para "solo personalizadas" (id_formula IS NULL)
+            "CREATE INDEX IF NOT EXISTS idx_pedidos_formula_fecha ON pedidos (id_formula, fecha DESC, id DESC)",
+            // Estadísticas para que el planificador elija bien entre índices cuando se combinan filtros
+            "ANALYZE pedidos"
+        )),
+
+        new Migration(7, "Contadores de pedidos por estado y por estado y día para el panel de resumen", sql(
+            // Los triggers mantienen los contadores en la misma transacción que la escritura del pedido,
+            // así el panel los lee con una búsqueda por clave en lugar de recorrer la tabla de pedidos
+            "CREATE TABLE IF NOT EXISTS pedidos_por_estado (" +
+            " estado TEXT PRIMARY KEY," +
+            " total INTEGER NOT NULL DEFAULT 0" +
+            ") WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS pedidos_por_estado_dia (" +
+            " dia TEXT NOT NULL," +
+            " estado TEXT NOT NULL," +
+            " total INTEGER NOT NULL DEFAULT 0," +
+            " PRIMARY KEY (dia, estado)" +
+            ") WITHOUT ROWID",
+            "INSERT INTO pedidos_por_estado (estado, total)" +
+            " SELECT estado, COUNT(*) FROM pedidos GROUP BY estado",
+            "INSERT INTO pedidos_por_estado_dia (dia, estado, total)" +
+            " SELECT substr(fecha, 1, 10), estado, COUNT(*) FROM pedidos GROUP BY substr(fecha, 1, 10), estado",
+            triggerResumen("INSERT", SchemaMigrations::diaTexto),
+            triggerResumen("DELETE", SchemaMigrations::diaTexto),
+            triggerResumen("UPDATE", SchemaMigrations::diaTexto)
+        )),
+
+        new Migration(8, "Resúmenes de demanda por fórmula y unidad, diarios y semanales", sql(
+            // Una fila por (periodo, fórmula, unidad) con el número de pedidos y la cantidad pedida.
+            // Las fórmulas personalizadas se agrupan con id_formula = 0 y los pedidos cancelados no cuentan.
+            "CREATE TABLE IF NOT EXISTS demanda_diaria (" +
+            " dia TEXT NOT NULL," +
+            " id_formula INTEGER NOT NULL," +
+            " unidad TEXT NOT NULL," +
+            " pedidos INTEGER NOT NULL DEFAULT 0," +
+            " cantidad INTEGER NOT NULL DEFAULT 0," +
+            " PRIMARY KEY (dia, id_formula, unidad)" +
+            ") WITHOUT ROWID",
+            // La semana se identifica por la fecha de su lunes
+            "CREATE TABLE IF NOT EXISTS demanda_semanal (" +
+            " semana TEXT NOT NULL," +
+            " id_formula INTEGER NOT NULL," +
+            " unidad TEXT NOT NULL," +
+            " pedidos INTEGER NOT NULL DEFAULT 0," +
+            " cantidad INTEGER NOT NULL DEFAULT 0," +
+            " PRIMARY KEY (semana, id_formula, unidad)" +
+            ") WITHOUT ROWID",
+            "INSERT INTO demanda_diaria (dia, id_formula, unidad, pedidos, cantidad)" +
+            " SELECT substr(fecha, 1, 10), COALESCE(id_formula, 0), COALESCE(unidad, ''), COUNT(*), SUM(cantidad)" +
+            " FROM pedidos WHERE estado <> 'Cancelado' GROUP BY 1, 2, 3",
+            "INSERT INTO demanda_semanal (semana, id_formula, unidad, pedidos, cantidad)" +
+            " SELECT date(dia, '-6 days', 'weekday 1'), id_formula, unidad, SUM(pedidos), SUM(cantidad)" +
+            " FROM demanda_diaria GROUP BY 1, 2, 3",
+            triggerDemanda("INSERT", SchemaMigrations::diaTexto, "'Cancelado'"),
+            triggerDemanda("DELETE", SchemaMigrations::diaTexto, "'Cancelado'"),
+            triggerDemanda("UPDATE", SchemaMigrations::diaTexto, "'Cancelado'")
+        )),
+
+        new Migration(9, "Fecha de los pedidos como milisegundos desde 1970 (INTEGER) en lugar de texto", conn -> {
+            // SQLite no cambia el tipo de una columna: se crea otra, se rellena y se sustituye.
+            // Antes hay que quitar los índices y triggers que usan la fecha, porque impiden borrar la columna.
+            sql(
+                "DROP INDEX IF EXISTS idx_pedidos_paciente_fecha",
+                "DROP INDEX IF EXISTS idx_pedidos_fecha",
+                "DROP INDEX IF EXISTS idx_pedidos_estado_fecha_id",
+                "DROP INDEX IF EXISTS idx_pedidos_formula_fecha",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_insert",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_delete",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_update",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_insert",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_delete",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_update"
+            ).apply(conn);
+
+            // Las bases nuevas ya crean la columna como INTEGER
+            if ("TEXT".equalsIgnoreCase(tipoColumna(conn, "pedidos", "fecha"))) {
+                sql(
+                    "ALTER TABLE pedidos ADD COLUMN fecha_ms INTEGER NOT NULL DEFAULT 0",
+                    // El texto está en hora local: 'utc' lo pasa a UTC antes de contar los segundos.
+                    // Una fecha ilegible quedaría en 0 (1970) en lugar de impedir arrancar la aplicación
+                    "UPDATE pedidos SET fecha_ms = COALESCE(CAST(strftime('%s', fecha, 'utc') AS INTEGER), 0) * 1000",
+                    "ALTER TABLE pedidos DROP COLUMN fecha",
+                    "ALTER TABLE pedidos RENAME COLUMN fecha_ms TO fecha"
+                ).apply(conn);
+            }
+
+            // Los mismos índices de las migraciones 1 y 6, ahora sobre enteros de 8 bytes en lugar de textos de 19
+            sql(
+                "CREATE INDEX IF NOT EXISTS idx_pedidos_paciente_fecha ON pedidos (id_paciente, fecha DESC, id DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_pedidos_fecha ON pedidos (fecha DESC, id DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_pedidos_estado_fecha_id ON pedidos (estado, fecha DESC, id DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_pedidos_formula_fecha ON pedidos (id_formula, fecha DESC, id DESC)",
+                // Los resúmenes siguen agrupando por día local (yyyy-MM-dd), así sus claves no cambian
+                triggerResumen("INSERT", SchemaMigrations::diaEpoch),
+                triggerResumen("DELETE", SchemaMigrations::diaEpoch),
+                triggerResumen("UPDATE", SchemaMigrations::diaEpoch),
+                triggerDemanda("INSERT", SchemaMigrations::diaEpoch, "'Cancelado'"),
+                triggerDemanda("DELETE", SchemaMigrations::diaEpoch, "'Cancelado'"),
+                triggerDemanda("UPDATE", SchemaMigrations::diaEpoch, "'Cancelado'"),
+                "ANALYZE pedidos"
+            ).apply(conn);
+        }),
+
+        new Migration(10, "Estado de los pedidos como código entero en lugar de texto", conn -> {
+            // Igual que en la migración 9: se quitan el índice y los triggers que usan el estado para poder
+            // sustituir la columna, y se vuelven a crear sobre el código
+            sql(
+                "DROP INDEX IF EXISTS idx_pedidos_estado_fecha_id",
+                "DROP TRIGGER IF EXISTS trg_pedidos_sello_update",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_insert",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_delete",
+                "DROP TRIGGER IF EXISTS trg_pedidos_resumen_update",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_insert",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_delete",
+                "DROP TRIGGER IF EXISTS trg_pedidos_demanda_update"
+            ).apply(conn);
+
+            // Las bases nuevas ya crean la columna como INTEGER
+            if ("TEXT".equalsIgnoreCase(tipoColumna(conn, "pedidos", "estado"))) {
+                // La correspondencia texto -> código se fija aquí a mano, tal como era al publicar esta
+                // migración: no debe depender de EstadoPedido, que puede cambiar más adelante
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM pedidos WHERE " + ESTADO_TEXTO
+                             + " NOT IN ('pendiente', 'en preparación', 'listo', 'entregado', 'cancelado')")) {
+                    if (rs.next() && rs.getLong(1) > 0) {
+                        System.err.println("Migración 10: " + rs.getLong(1)
+                                + " pedidos con un estado desconocido pasan a Pendiente; revísalos.");
+                    }
+                }
+                sql(
+                    "ALTER TABLE pedidos ADD COLUMN estado_codigo INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE pedidos SET estado_codigo = CASE " + ESTADO_TEXTO +
+                    " WHEN 'pendiente' THEN 0" +
+                    " WHEN 'en preparación' THEN 1" +
+                    " WHEN 'listo' THEN 2" +
+                    " WHEN 'entregado' THEN 3" +
+                    " WHEN 'cancelado' THEN 4" +
+                    " ELSE 0 END",
+                    "ALTER TABLE pedidos DROP COLUMN estado",
+                    "ALTER TABLE pedidos RENAME COLUMN estado_codigo TO estado"
+                ).apply(conn);
+            }
+
+            // Código de Cancelado en la migración 10 (los triggers de demanda no cuentan esos pedidos)
+            String cancelado = "4";
+            sql(
+                // Los contadores por estado pasan a usar también el código; se recalculan desde los pedidos
+                "DROP TABLE IF EXISTS pedidos_por_estado",
+                "DROP TABLE IF EXISTS pedidos_por_estado_dia",
+                "CREATE TABLE pedidos_por_estado (" +
+                " estado INTEGER PRIMARY KEY," +
+                " total INTEGER NOT NULL DEFAULT 0" +
+                ") WITHOUT ROWID",
+                "CREATE TABLE pedidos_por_estado_dia (" +
+                " dia TEXT NOT NULL," +
+                " estado INTEGER NOT NULL," +
+                " total INTEGER NOT NULL DEFAULT 0," +
+                " PRIMARY KEY (dia, estado)" +
+                ") WITHOUT ROWID",
+                "INSERT INTO pedidos_por_estado (estado, total) SELECT estado, COUNT(*) FROM pedidos GROUP BY estado",
+                "INSERT INTO pedidos_por_estado_dia (dia, estado, total)" +
+                " SELECT date(fecha / 1000, 'unixepoch', 'localtime'), estado, COUNT(*) FROM pedidos GROUP BY 1, 2",
+                // La demanda se recalcula también: antes solo se descartaba el texto exacto 'Cancelado'
+                "DELETE FROM demanda_diaria",
+                "DELETE FROM demanda_semanal",
+                "INSERT INTO demanda_diaria (dia, id_formula, unidad, pedidos, cantidad)" +
+                " SELECT date(fecha / 1000, 'unixepoch', 'localtime'), COALESCE(id_formula, 0), COALESCE(unidad, '')," +
+                " COUNT(*), SUM(cantidad) FROM pedidos WHERE estado <> " + cancelado + " GROUP BY 1, 2, 3",
+                "INSERT INTO demanda_semanal (semana, id_formula, unidad, pedidos, cantidad)" +
+                " SELECT date(dia, '-6 days', 'weekday 1'), id_formula, unidad, SUM(pedidos), SUM(cantidad)" +
+                " FROM demanda_diaria GROUP BY 1, 2, 3",
+
+                "CREATE INDEX IF NOT EXISTS idx_pedidos_estado_fecha_id ON pedidos (estado, fecha DESC, id DESC)",
+                triggerSelloVersion("pedidos", "UPDATE OF estado"),
+                triggerResumen("INSERT", SchemaMigrations::diaEpoch),
+                triggerResumen("DELETE", SchemaMigrations::diaEpoch),
+                triggerResumen("UPDATE", SchemaMigrations::diaEpoch),
+                triggerDemanda("INSERT", SchemaMigrations::diaEpoch, cancelado),
+                triggerDemanda("DELETE", SchemaMigrations::diaEpoch, cancelado),
+                triggerDemanda("UPDATE", SchemaMigrations::diaEpoch, cancelado),
+                "ANALYZE pedidos"
+            ).apply(conn);
+        })
+    );
+
+    /**
+     * Aplica las migraciones pendientes sobre la conexión de escritura.
+     * @throws SQLException si alguna migración falla (se deshace y se detiene el proceso).
+     */
+    public static void migrate(Connection conn) throws SQLException {
+        int actual = getVersion(conn);
+        boolean autoCommit = conn.getAutoCommit();
+
+        try {
+            for (Migration m : MIGRACIONES) {
+                if (m.version() <= actual) {
+                    continue;
+                }
+
+                conn.setAutoCommit(false);
+                try {
+                    m.paso().apply(conn);
+                    try (Statement stmt = conn.createStatement()) {
+                        // PRAGMA no admite parámetros; la versión es un entero interno, no hay riesgo de inyección
+                        stmt.execute("PRAGMA user_version = " + m.version());
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Error aplicando la migración " + m.version()
+                            + " (" + m.descripcion() + ")", e);
+                }
+
+                actual = m.version();
+                System.out.println("Migración " + m.version() + " aplicada: " + m.descripcion());
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Versión del esquema guardada en el archivo de base de datos.
+     */
+    public static int getVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Trigger que incrementa la versión de la tabla en cambios_tablas tras cada escritura
+    private static String triggerVersion(String tabla, String operacion) {
+        return "CREATE TRIGGER IF NOT EXISTS trg_" + tabla + "_version_" + operacion.toLowerCase() +
+               " AFTER " + operacion + " ON " + tabla + " BEGIN" +
+               " UPDATE cambios_tablas SET version = version + 1 WHERE tabla = '" + tabla + "';" +
+               " END";
+    }
+
+    // Trigger que, además de incrementar la versión de la tabla, la copia en la columna 'version' de la fila
+    private static String triggerSelloVersion(String tabla, String operacion) {
+        String sufijo = operacion.split(" ")[0].toLowerCase();
+        return "CREATE TRIGGER IF NOT EXISTS trg_" + tabla + "_sello_" + sufijo +
+               " AFTER " + operacion + " ON " + tabla + " BEGIN" +
+               " UPDATE cambios_tablas SET version = version + 1 WHERE tabla = '" + tabla + "';" +
+               " UPDATE " + tabla + " SET version = (SELECT version FROM cambios_tablas WHERE tabla = '" + tabla + "')" +
+               " WHERE id = NEW.id;" +
+               " END";
+    }
+
+    /**
+     * Trigger que mantiene sincronizado el índice FTS5 externo "tabla_fts" con la tabla.
+     * En un índice externo, borrar exige volver a pasar los valores antiguos con el comando 'delete';
+     * una modificación es un borrado seguido de una inserción, y solo se dispara si cambian las columnas indexadas.
+     */
+    private static String triggerFts(String tabla, String operacion, String... columnas) {
+        String fts = tabla + "_fts";
+        String lista = String.join(", ", columnas);
+        String borrar = "INSERT INTO " + fts + " (" + fts + ", rowid, " + lista + ") VALUES ('delete', OLD.id, " +
+                String.join(", ", Arrays.stream(columnas).map(c -> "OLD." + c).toList()) + ");";
+        String insertar = "INSERT INTO " + fts + " (rowid, " + lista + ") VALUES (NEW.id, " +
+                String.join(", ", Arrays.stream(columnas).map(c -> "NEW." + c).toList()) + ");";
+
+        String cuerpo = switch (operacion) {
+            case "INSERT" -> insertar;
+            case "DELETE" -> borrar;
+            default -> borrar + " " + insertar;
+        };
+        String evento = operacion.equals("UPDATE") ? "UPDATE OF " + lista : operacion;
+        return "CREATE TRIGGER IF NOT EXISTS trg_" + fts + "_" + operacion.toLowerCase() +
+               " AFTER " + evento + " ON " + tabla + " BEGIN " + cuerpo + " END";
+    }
+
+    // Día local (yyyy-MM-dd) de la fecha de la fila NEW u OLD: texto hasta la migración 9, milisegundos después
+    private static String diaTexto(String fila) {
+        return "substr(" + fila + ".fecha, 1, 10)";
+    }
+
+    private static String diaEpoch(String fila) {
+        return "date(" + fila + ".fecha / 1000, 'unixepoch', 'localtime')";
+    }
+
+    /**
+     * Trigger que mantiene los contadores por estado (migración 7) tras un alta, una baja o un cambio.
+     * Los cambios solo cuentan si el pedido cambia de estado o de día; los demás no afectan a los contadores.
+     */
+    private static String triggerResumen(String operacion, Function<String, String> dia) {
+        String cuerpo = switch (operacion) {
+            case "INSERT" -> sumarResumen("NEW", 1, dia);
+            case "DELETE" -> sumarResumen("OLD", -1, dia);
+            default -> sumarResumen("OLD", -1, dia) + " " + sumarResumen("NEW", 1, dia);
+        };
+        String evento = operacion.equals("UPDATE")
+                ? "UPDATE OF estado, fecha ON pedidos" +
+                  " WHEN OLD.estado IS NOT NEW.estado OR " + dia.apply("OLD") + " IS NOT " + dia.apply("NEW")
+                : operacion + " ON pedidos";
+        return "CREATE TRIGGER IF NOT EXISTS trg_pedidos_resumen_" + operacion.toLowerCase() +
+               " AFTER " + evento + " BEGIN " + cuerpo + " END";
+    }
+
+    // Suma delta a los contadores del estado y del día de la fila (NEW u OLD) dentro de un trigger
+    private static String sumarResumen(String fila, int delta, Function<String, String> dia) {
+        return "INSERT INTO pedidos_por_estado (estado, total) VALUES (" + fila + ".estado, " + delta + ")" +
+               " ON CONFLICT (estado) DO UPDATE SET total = total + " + delta + ";" +
+               " INSERT INTO pedidos_por_estado_dia (dia, estado, total)" +
+               " VALUES (" + dia.apply(fila) + ", " + fila + ".estado, " + delta + ")" +
+               " ON CONFLICT (dia, estado) DO UPDATE SET total = total + " + delta + ";";
+    }
+
+    /**
+     * Trigger que mantiene la demanda diaria y semanal (migración 8). Una cancelación, o cualquier cambio
+     * que mueva el pedido de grupo, resta la contribución antigua y suma la nueva.
+     */
+    private static String triggerDemanda(String operacion, Function<String, String> dia, String cancelado) {
+        String cuerpo = switch (operacion) {
+            case "INSERT" -> sumarDemanda("NEW", 1, dia, cancelado);
+            case "DELETE" -> sumarDemanda("OLD", -1, dia, cancelado);
+            default -> sumarDemanda("OLD", -1, dia, cancelado) + " " + sumarDemanda("NEW", 1, dia, cancelado);
+        };
+        String evento = operacion.equals("UPDATE") ? "UPDATE OF estado, fecha, id_formula, unidad, cantidad" : operacion;
+        return "CREATE TRIGGER IF NOT EXISTS trg_pedidos_demanda_" + operacion.toLowerCase() +
+               " AFTER " + evento + " ON pedidos BEGIN " + cuerpo + " END";
+    }
+
+    /**
+     * Suma (signo 1) o resta (signo -1) la fila NEW u OLD a la demanda diaria y semanal dentro de un trigger.
+     * El WHERE descarta los pedidos cancelados y, de paso, evita la ambigüedad de "INSERT ... SELECT ... ON CONFLICT".
+     * @param cancelado Valor SQL del estado cancelado: el texto 'Cancelado' o, desde la migración 10, su código.
+     */
+    private static String sumarDemanda(String fila, int signo, Function<String, String> dia, String cancelado) {
+        String diaFila = dia.apply(fila);
+        String valores = "COALESCE(" + fila + ".id_formula, 0), COALESCE(" + fila + ".unidad, ''), " +
+                signo + ", " + signo + " * " + fila + ".cantidad WHERE " + fila + ".estado <> " + cancelado;
+        String acumular = " DO UPDATE SET pedidos = pedidos + excluded.pedidos, cantidad = cantidad + excluded.cantidad;";
+        return "INSERT INTO demanda_diaria (dia, id_formula, unidad, pedidos, cantidad) SELECT " + diaFila + ", " + valores +
+               " ON CONFLICT (dia, id_formula, unidad)" + acumular +
+               " INSERT INTO demanda_semanal (semana, id_formula, unidad, pedidos, cantidad)" +
+               " SELECT date(" + diaFila + ", '-6 days', 'weekday 1'), " + valores +
+               " ON CONFLICT (semana, id_formula, unidad)" + acumular;
+    }
+
+    // Tipo declarado de una columna (p. ej. "TEXT"), o null si la tabla no la tiene
+    private static String tipoColumna(Connection conn, String tabla, String columna) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tabla + ")")) {
+            while (rs.next()) {
+                if (columna.equals(rs.getString("name"))) {
+                    return rs.getString("type");
+                }
+            }
+        }
+        return null;
+    }
+
+    // Renombra una columna solo si existe con el nombre antiguo (las bases nuevas ya la crean bien)
+    private static void renombrarColumna(Connection conn, String tabla, String antigua, String nueva) throws SQLException {
+        boolean existe = false;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tabla + ")")) {
+            while (rs.next()) {
+                existe |= antigua.equals(rs.getString("name"));
+            }
+        }
+        if (existe) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE " + tabla + " RENAME COLUMN \"" + antigua + "\" TO " + nueva);
+            }
+        }
+    }
+
+    // Crea un paso que ejecuta las sentencias SQL indicadas en orden
+    private static MigrationStep sql(String... sentencias) {
+        return conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                for (String s : sentencias) {
+                    stmt.execute(s);
+                }
+            }
+        };
+    }
+}
@@ -1,9 +1,19 @@
 package app;
 
-import app.repository.PacienteRepository;
+import app.service.CambioDatos;
+import app.service.EventBus;
 import app.service.FormulaService;
+import app.service.PacienteService;
 import app.service.PedidoService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -22,10 +32,20 @@ import javafx.stage.Stage;
 public class UserWindow {
 
     // Dependencias para la gestión de datos de pacientes, fórmulas y pedidos
-    private static final PacienteRepository pacienteRepository = new PacienteRepository();
+    private static final PacienteService pacienteService       = new PacienteService();
     private static final FormulaService formulaService         = new FormulaService();
     private static final PedidoService pedidoService           = new PedidoService();
 
+    // Orden del historial del paciente, el mismo que devuelve la base de datos
+    private static final Comparator<Pedido> ORDEN_PEDIDOS =
+            Comparator.comparingLong(Pedido::getFechaMs).thenComparingInt(Pedido::getId).reversed();
+
+    // Suscripciones al bus de eventos del área abierta; se cancelan al cerrar sesión
+    private static final List<EventBus.Suscripcion> suscripciones = new ArrayList<>();
+
+    // Máximo de fórmulas que devuelve el buscador del desplegable
+    private static final int LIMITE_BUSQUEDA = 50;
+
     // Carga de estilos CSS personalizados
     private static String getCss() {
         return new java.io.File("src/resource/styles.css").toURI().toString();
@@ -37,15 +57,55 @@ public class UserWindow {
      * @param user Usuario autenticado.
      */
     public static void show(Stage stage, User user) {
+        show(stage, user, null);
+    }
 
-        // Verificación de la existencia del perfil de paciente asociado al usuario
-        Paciente paciente = pacienteRepository.findByUserId(user.getId());
-        if (paciente == null) {
-            mostrarAlerta("No se ha encontrado la ficha de paciente asociada a este usuario.");
-            LoginScreen.show(stage);
+    /**
+     * Igual que show(stage, user), pero con la ficha del paciente ya cargada (p. ej. durante el login),
+     * con lo que el área se construye directamente sin consultar la base de datos.
+     * @param paciente Ficha precargada, o null para consultarla.
+     */
+    public static void show(Stage stage, User user, Paciente paciente) {
+
+        cancelarSuscripciones();
+
+        if (paciente != null) {
+            mostrarArea(stage, user, paciente);
             return;
         }
 
+        // Pantalla provisional mientras se consulta la ficha del paciente en segundo plano
+        Scene carga = new Scene(new StackPane(BackgroundLoader.crearIndicador("Cargando tu área personal...")), 900, 600);
+        carga.getStylesheets().add(getCss());
+        stage.setScene(carga);
+        stage.show();
+
+        // Verificación de la existencia del perfil de paciente asociado al usuario
+        BackgroundLoader.load(() -> pacienteService.getPacienteByUsuario(user.getId()), ficha -> {
+            if (ficha == null) {
+                mostrarAlerta("No se ha encontrado la ficha de paciente asociada a este usuario.");
+                LoginScreen.show(stage);
+                return;
+            }
+            mostrarArea(stage, user, ficha);
+        });
+    }
+
+    // Registra un oyente del bus ligado a la vida de esta ventana
+    private static void suscribir(CambioDatos.Entidad entidad, Consumer<CambioDatos> oyente) {
+        suscripciones.add(EventBus.getInstance().suscribir(entidad, oyente));
+    }
+
+    private static void cancelarSuscripciones() {
+        suscripciones.forEach(EventBus.Suscripcion::cancelar);
+        suscripciones.clear();
+    }
+
+    /**
+     * Construye el área privada una vez obtenida la ficha del paciente.
+     */
+    private static void mostrarArea(Stage stage, User user, Paciente paciente) {
+
         BorderPane root = new BorderPane();
 
         // ---- Header personalizado ----
@@ -57,7 +117,10 @@ public class UserWindow {
 
         Button btnLogout = new Button("Cerrar sesión");
         btnLogout.getStyleClass().add("btn-logout");
-        btnLogout.setOnAction(_ -> LoginScreen.show(stage));
+        btnLogout.setOnAction(_ -> {
+            cancelarSuscripciones();
+            LoginScreen.show(stage);
+        });
 
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
@@ -114,9 +177,37 @@ public class UserWindow {
         // Contenedor para fórmula de catálogo
         Label lblFormulaExistente = new Label("Fórmula:");
         ComboBox<Formula> cbFormulas = new ComboBox<>();
-        cbFormulas.setItems(FXCollections.observableArrayList(formulaService.getAllFormulas()));
         cbFormulas.setMaxWidth(Double.MAX_VALUE);
-        VBox boxExistente = new VBox(5, lblFormulaExistente, cbFormulas);
+        cbFormulas.setPromptText("Cargando fórmulas...");
+        ObservableList<Formula> formulas = FXCollections.observableArrayList();
+        cbFormulas.setItems(formulas);
+        BackgroundLoader.load(formulaService::getAllFormulas, catalogo -> {
+            formulas.setAll(catalogo);
+            cbFormulas.setPromptText("Selecciona una fórmula");
+        });
+
+        // Si el administrador cambia el catálogo, el desplegable se actualiza sin recargarlo entero
+        suscribir(CambioDatos.Entidad.FORMULA, cambio -> BackgroundLoader.cargarCambios(cambio, formulas,
+                Formula::getId, id -> formulaService.getFormulaById(id).orElse(null),
+                formulaService::getAllFormulas, Comparator.comparing(Formula::getNombre)));
+
+        // Buscador del catálogo: el desplegable pasa a mostrar solo las fórmulas encontradas, por relevancia
+        TextField txtBuscarFormula = new TextField();
+        txtBuscarFormula.setPromptText("Buscar fórmula por nombre o descripción...");
+        txtBuscarFormula.textProperty().addListener((_, _, texto) -> {
+            if (texto.isBlank()) {
+                cbFormulas.setItems(formulas);
+                return;
+            }
+            BackgroundLoader.load(() -> formulaService.buscarFormulas(texto, LIMITE_BUSQUEDA), encontradas -> {
+                if (texto.equals(txtBuscarFormula.getText())) {
+                    cbFormulas.setItems(FXCollections.observableArrayList(encontradas));
+                    cbFormulas.setValue(encontradas.isEmpty() ? null : encontradas.get(0));
+                    cbFormulas.setPromptText(encontradas.isEmpty() ? "Sin resultados" : "Selecciona una fórmula");
+                }
+            });
+        });
+        VBox boxExistente = new VBox(5, lblFormulaExistente, txtBuscarFormula, cbFormulas);
 
         // Contenedor para fórmula personalizada
         Label lblFormulaPers = new Label("Nombre de la fórmula personalizada:");
@@ -173,7 +264,7 @@ public class UserWindow {
 
             String unidad        = cbUnidades.getValue();
             String observaciones = txtObs.getText().trim();
-            boolean ok;
+            CompletableFuture<Boolean> envio;
 
             // Delegación al servicio según el tipo de pedido
             if (rbExistente.isSelected()) {
@@ -182,7 +273,7 @@ public class UserWindow {
                     mostrarAlerta("Debes seleccionar una fórmula del listado.");
                     return;
                 }
-                ok = pedidoService.crearPedidoFormulaCatalogo(
+                envio = pedidoService.crearPedidoFormulaCatalogoAsync(
                         paciente.getId(), sel.getId(), cantidad, unidad, observaciones);
             } else {
                 String nombrePers = txtFormulaPers.getText().trim();
@@ -190,24 +281,28 @@ public class UserWindow {
                     mostrarAlerta("Debes escribir el nombre de la fórmula personalizada.");
                     return;
                 }
-                ok = pedidoService.crearPedidoFormulaPersonalizada(
+                envio = pedidoService.crearPedidoFormulaPersonalizadaAsync(
                         paciente.getId(), nombrePers, cantidad, unidad, observaciones);
             }
 
-            // Feedback al usuario y limpieza del formulario tras el envío
-            if (ok) {
-                mostrarAlerta("Solicitud enviada correctamente.");
-                txtCantidad.setText("1");
-                cbUnidades.setValue("Unidades");
-                txtObs.clear();
-                txtFormulaPers.clear();
-                cbFormulas.getSelectionModel().clearSelection();
-                rbExistente.setSelected(true);
-                boxExistente.setDisable(false);
-                boxPers.setDisable(true);
-            } else {
-                mostrarAlerta("Error al enviar la solicitud.");
-            }
+            // Feedback al usuario y limpieza del formulario cuando se confirma el envío
+            btnEnviar.setDisable(true);
+            envio.thenAccept(ok -> BackgroundLoader.onFxThread(() -> {
+                btnEnviar.setDisable(false);
+                if (ok) {
+                    mostrarAlerta("Solicitud enviada correctamente.");
+                    txtCantidad.setText("1");
+                    cbUnidades.setValue("Unidades");
+                    txtObs.clear();
+                    txtFormulaPers.clear();
+                    cbFormulas.getSelectionModel().clearSelection();
+                    rbExistente.setSelected(true);
+                    boxExistente.setDisable(false);
+                    boxPers.setDisable(true);
+                } else {
+                    mostrarAlerta("Error al enviar la solicitud.");
+                }
+            }));
         });
 
         HBox opciones = new HBox(15, rbExistente, rbPersonalizada);
@@ -244,7 +339,7 @@ public class UserWindow {
         TableColumn<Pedido, String> colCantidad = new TableColumn<>("Cantidad");
         colCantidad.setCellValueFactory(new PropertyValueFactory<>("cantidadConUnidad"));
 
-        TableColumn<Pedido, String> colEstado = new TableColumn<>("Estado");
+        TableColumn<Pedido, EstadoPedido> colEstado = new TableColumn<>("Estado");
         colEstado.setCellValueFactory(new PropertyValueFactory<>("estado"));
 
         TableColumn<Pedido, String> colObs = new TableColumn<>("Observaciones");
@@ -258,26 +353,77 @@ public class UserWindow {
         table.getColumns().add(colObs);
 
         ObservableList<Pedido> data = FXCollections.observableArrayList();
-        cargarPedidosPaciente(data, paciente);
         table.setItems(data);
 
-        Button btnRecargar = new Button("Actualizar");
-        btnRecargar.getStyleClass().add("btn-secondary");
-        btnRecargar.setOnAction(_ -> cargarPedidosPaciente(data, paciente));
+        // Versión de cambio hasta la que está sincronizada la tabla (-1: aún sin cargar)
+        AtomicLong version = new AtomicLong(-1);
+        cargarPedidosPaciente(table, data, paciente, version);
 
-        root.getChildren().addAll(title, table, btnRecargar);
+        // Los pedidos nuevos o que cambian de estado (también desde otros terminales) llegan por el bus;
+        // se piden solo las diferencias, así que la tabla se mantiene al día sin botón de recarga
+        suscribir(CambioDatos.Entidad.PEDIDO, _ ->
+                BackgroundLoader.onFxThread(() -> cargarPedidosPaciente(table, data, paciente, version)));
+
+        root.getChildren().addAll(title, table);
         VBox.setVgrow(table, Priority.ALWAYS);
 
         return root;
     }
 
     /**
-     * Consulta y carga en la lista observable los pedidos específicos del paciente.
+     * Consulta en segundo plano los pedidos específicos del paciente y los carga en la lista observable.
+     * La primera vez se carga el historial completo; después solo se piden los pedidos nuevos o
+     * modificados desde la última versión vista y se aplican sobre la lista existente.
+     */
+    private static void cargarPedidosPaciente(TableView<Pedido> table, ObservableList<Pedido> data,
+                                              Paciente paciente, AtomicLong version) {
+        long desde = version.get();
+        if (desde < 0) {
+            // La versión se lee antes que los pedidos para no perder cambios hechos durante la carga
+            BackgroundLoader.load(table, () -> {
+                long v = pedidoService.getVersionPedidos();
+                return new CambiosPedidos(pedidoService.getPedidosByPaciente(paciente.getId()), v);
+            }, completos -> {
+                data.setAll(completos.pedidos());
+                version.set(completos.version());
+            });
+            return;
+        }
+
+        BackgroundLoader.load(() -> pedidoService.getCambiosPedidosPaciente(paciente.getId(), desde), cambios -> {
+            aplicarCambios(data, cambios.pedidos());
+            version.set(cambios.version());
+        });
+    }
+
+    /**
+     * Sustituye por id los pedidos que ya están en la lista e inserta los nuevos en su posición,
+     * de modo que la tabla conserva la selección y el desplazamiento.
      */
-    private static void cargarPedidosPaciente(ObservableList<Pedido> data, Paciente paciente) {
-        data.clear();
-        List<Pedido> lista = pedidoService.getPedidosByPaciente(paciente.getId());
-        data.addAll(lista);
+    private static void aplicarCambios(ObservableList<Pedido> data, List<Pedido> cambios) {
+        if (cambios.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> posicionPorId = new HashMap<>();
+        for (int i = 0; i < data.size(); i++) {
+            posicionPorId.put(data.get(i).getId(), i);
+        }
+
+        // Primero las modificaciones, que no desplazan filas; después las altas
+        List<Pedido> altas = new ArrayList<>();
+        for (Pedido p : cambios) {
+            Integer posicion = posicionPorId.get(p.getId());
+            if (posicion != null) {
+                data.set(posicion, p);
+            } else if (altas.stream().noneMatch(a -> a.getId() == p.getId())) {
+                altas.add(p);
+            }
+        }
+        for (Pedido p : altas) {
+            // Búsqueda binaria del hueco que le corresponde en el orden (fecha DESC, id DESC)
+            int hueco = Collections.binarySearch(data, p, ORDEN_PEDIDOS);
+            data.add(hueco < 0 ? -hueco - 1 : hueco, p);
+        }
     }
 
     /**
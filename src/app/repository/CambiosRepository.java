@@ -0,0 +1,39 @@
+package app.repository;
+
+import app.DatabaseConnection;
+
+import java.sql.*;
+
+/**
+ * Repositorio del registro de cambios por tabla (tabla 'cambios_tablas').
+ * Los triggers de la base de datos incrementan la versión de cada tabla vigilada en cada escritura,
+ * así que comparar versiones es una forma muy barata de saber si hay datos nuevos,
+ * incluidos los escritos por otras instancias de la aplicación.
+ */
+public class CambiosRepository {
+
+    /**
+     * Devuelve la versión actual de una tabla vigilada.
+     * @return La versión, o -1 si no se pudo consultar (se trata como "desconocida").
+     */
+    public long getVersion(String tabla) {
+        String sql = "SELECT version FROM cambios_tablas WHERE tabla = ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, tabla);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo la versión de la tabla " + tabla + ":");
+            e.printStackTrace();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,33 @@
+package app.repository;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Traduce el texto que escribe el usuario a una consulta FTS5 segura.
+ * Cada palabra se entrecomilla (así los caracteres especiales de FTS5 no se interpretan)
+ * y se busca como prefijo, de modo que "amox 500" encuentra "Amoxicilina 500 mg" mientras se escribe.
+ * Las palabras se combinan con AND implícito.
+ */
+final class ConsultaFts {
+
+    // Límite de palabras por búsqueda, para acotar el coste de consultas pegadas por error
+    private static final int MAX_PALABRAS = 8;
+
+    private ConsultaFts() { }
+
+    /**
+     * @return La expresión MATCH, o null si el texto no contiene ninguna palabra buscable.
+     */
+    static String prefijos(String texto) {
+        if (texto == null) {
+            return null;
+        }
+        String consulta = Arrays.stream(texto.split("[^\\p{L}\\p{N}]+"))
+                .filter(p -> !p.isEmpty())
+                .limit(MAX_PALABRAS)
+                .map(p -> "\"" + p + "\"*")
+                .collect(Collectors.joining(" "));
+        return consulta.isEmpty() ? null : consulta;
+    }
+}
@@ -16,14 +16,15 @@ public class FormulaRepository {
 
     /**
      * Consulta la base de datos para obtener el catálogo completo de fórmulas.
-     * @return List de objetos Formula ordenados alfabéticamente.
+     * @return List de objetos Formula ordenados alfabéticamente, o null si la consulta falla
+     *         (para que la caché del catálogo no confunda un error con un catálogo vacío).
      */
     public List<Formula> findAll() {
         List<Formula> lista = new ArrayList<>();
         String sql = "SELECT * FROM formulas ORDER BY nombre ASC";
 
         // Uso de try-with-resources para garantizar el cierre de recursos JDBC
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
 
@@ -40,6 +41,51 @@ public class FormulaRepository {
         } catch (SQLException e) {
             System.err.println("Error obteniendo fórmulas:");
             e.printStackTrace();
+            return null;
+        }
+        return lista;
+    }
+
+    /**
+     * Búsqueda de texto completo en nombre y descripción (índice FTS5, ver migración 5).
+     * Las palabras se buscan como prefijo y los resultados salen por relevancia,
+     * pesando más una coincidencia en el nombre que en la descripción.
+     * @return Como mucho 'limite' fórmulas; lista vacía si el texto no tiene palabras buscables.
+     */
+    public List<Formula> search(String texto, int limite) {
+        List<Formula> lista = new ArrayList<>();
+        String consulta = ConsultaFts.prefijos(texto);
+        if (consulta == null) {
+            return lista;
+        }
+
+        String sql =
+            "SELECT f.* FROM formulas_fts " +
+            "JOIN formulas f ON f.id = formulas_fts.rowid " +
+            "WHERE formulas_fts MATCH ? " +
+            "ORDER BY bm25(formulas_fts, 10.0, 1.0) " +
+            "LIMIT ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, consulta);
+            stmt.setInt(2, limite);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(new Formula(
+                            rs.getInt("id"),
+                            rs.getString("nombre"),
+                            rs.getString("descripcion"),
+                            rs.getDouble("precio")
+                    ));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error buscando fórmulas:");
+            e.printStackTrace();
         }
         return lista;
     }
@@ -52,22 +98,27 @@ public class FormulaRepository {
     public int insert(Formula f) {
         String sql = "INSERT INTO formulas (nombre, descripcion, precio) VALUES (?, ?, ?)";
 
-        // Se solicita el retorno de claves generadas para obtener el ID asignado por SQLite
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            // Asignación de parámetros mediante PreparedStatement para prevenir SQL Injection
-            stmt.setString(1, f.getNombre());
-            stmt.setString(2, f.getDescripcion());
-            stmt.setDouble(3, f.getPrecio());
-            stmt.executeUpdate();
-
-            // Recuperación del ID autoincremental generado
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
+        // Las escrituras van por la conexión de escritura, con reintentos si la BD está ocupada
+        try {
+            return DatabaseConnection.executeWrite(conn -> {
+                // Se solicita el retorno de claves generadas para obtener el ID asignado por SQLite
+                try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                    // Asignación de parámetros mediante PreparedStatement para prevenir SQL Injection
+                    stmt.setString(1, f.getNombre());
+                    stmt.setString(2, f.getDescripcion());
+                    stmt.setDouble(3, f.getPrecio());
+                    stmt.executeUpdate();
+
+                    // Recuperación del ID autoincremental generado
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            return rs.getInt(1);
+                        }
+                    }
                 }
-            }
+                return -1;
+            });
 
         } catch (SQLException e) {
             System.err.println("Error insertando fórmula:");
@@ -83,15 +134,17 @@ public class FormulaRepository {
     public boolean update(Formula f) {
         String sql = "UPDATE formulas SET nombre = ?, descripcion = ?, precio = ? WHERE id = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, f.getNombre());
-            stmt.setString(2, f.getDescripcion());
-            stmt.setDouble(3, f.getPrecio());
-            stmt.setInt(4, f.getId());
+        try {
+            return DatabaseConnection.executeWrite(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, f.getNombre());
+                    stmt.setString(2, f.getDescripcion());
+                    stmt.setDouble(3, f.getPrecio());
+                    stmt.setInt(4, f.getId());
 
-            return stmt.executeUpdate() > 0;
+                    return stmt.executeUpdate() > 0;
+                }
+            });
 
         } catch (SQLException e) {
             System.err.println("Error actualizando fórmula:");
@@ -106,11 +159,13 @@ public class FormulaRepository {
     public boolean delete(int id) {
         String sql = "DELETE FROM formulas WHERE id = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, id);
-            return stmt.executeUpdate() > 0;
+        try {
+            return DatabaseConnection.executeWrite(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, id);
+                    return stmt.executeUpdate() > 0;
+                }
+            });
 
         } catch (SQLException e) {
             System.err.println("Error eliminando fórmula:");
@@ -1,6 +1,7 @@
 package app.repository;
 
 import app.DatabaseConnection;
+import app.NuevoPaciente;
 import app.Paciente;
 
 import java.sql.*;
@@ -22,7 +23,7 @@ public class PacienteRepository {
     public Paciente findByUserId(int idUsuario) {
         String sql = "SELECT * FROM pacientes WHERE id_usuario = ? LIMIT 1";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             // Seteo de parámetros para evitar ataques de SQL Injection
@@ -48,6 +49,37 @@ public class PacienteRepository {
         return null;
     }
 
+    /**
+     * Busca un paciente por su identificador.
+     * @return Objeto Paciente si existe, o null en caso contrario.
+     */
+    public Paciente findById(int id) {
+        String sql = "SELECT * FROM pacientes WHERE id = ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, id);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new Paciente(
+                            rs.getInt("id"),
+                            rs.getInt("id_usuario"),
+                            rs.getString("nombre"),
+                            rs.getString("telefono"),
+                            rs.getString("email")
+                    );
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo paciente por id:");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     /**
      * Recupera la lista completa de pacientes registrados.
      * @return List de pacientes ordenados alfabéticamente por nombre.
@@ -56,7 +88,7 @@ public class PacienteRepository {
         List<Paciente> lista = new ArrayList<>();
         String sql = "SELECT * FROM pacientes ORDER BY nombre";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
 
@@ -81,17 +113,51 @@ public class PacienteRepository {
      * Inserta un nuevo registro de paciente.
      * Nota técnica: Recibe el objeto Connection de forma externa para permitir
      * que esta operación forme parte de una transacción atómica (ej. crear usuario + paciente).
+     * @return El ID generado para el paciente o -1 si no se insertó.
      */
-    public boolean insert(int idUsuario, String nombre, String telefono, String email, Connection conn) throws SQLException {
+    public int insert(int idUsuario, String nombre, String telefono, String email, Connection conn) throws SQLException {
         String sql = "INSERT INTO pacientes (id_usuario, nombre, telefono, email) VALUES (?, ?, ?, ?)";
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, idUsuario);
             stmt.setString(2, nombre);
             stmt.setString(3, telefono);
             stmt.setString(4, email);
-            return stmt.executeUpdate() > 0;
+            stmt.executeUpdate();
+
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Crea las fichas de un bloque de pacientes cuyos usuarios se acaban de insertar en la misma transacción.
+     * El id de usuario se resuelve en la propia sentencia a partir del email (columna única),
+     * así no hace falta recuperar las claves generadas del bloque de usuarios.
+     * @return Número de fichas insertadas.
+     */
+    public int insertBatch(List<NuevoPaciente> pacientes, Connection conn) throws SQLException {
+        String sql = "INSERT INTO pacientes (id_usuario, nombre, telefono, email) " +
+                     "SELECT id, nombre, telefono, email FROM usuarios WHERE email = ?";
+
+        int insertados = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (NuevoPaciente p : pacientes) {
+                stmt.setString(1, p.email());
+                stmt.addBatch();
+            }
+
+            for (int filas : stmt.executeBatch()) {
+                if (filas > 0 || filas == Statement.SUCCESS_NO_INFO) {
+                    insertados++;
+                }
+            }
         }
+        return insertados;
     }
 
     /**
@@ -102,15 +168,17 @@ public class PacienteRepository {
     public boolean update(Paciente p) {
         String sql = "UPDATE pacientes SET nombre = ?, telefono = ?, email = ? WHERE id = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try {
+            return DatabaseConnection.executeWrite(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, p.getNombre());
+                    stmt.setString(2, p.getTelefono());
+                    stmt.setString(3, p.getEmail());
+                    stmt.setInt(4, p.getId());
 
-            stmt.setString(1, p.getNombre());
-            stmt.setString(2, p.getTelefono());
-            stmt.setString(3, p.getEmail());
-            stmt.setInt(4, p.getId());
-
-            return stmt.executeUpdate() > 0;
+                    return stmt.executeUpdate() > 0;
+                }
+            });
 
         } catch (SQLException e) {
             System.err.println("Error actualizando paciente:");
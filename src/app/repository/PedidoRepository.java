@@ -1,13 +1,26 @@
 package app.repository;
 
 import app.DatabaseConnection;
+import app.EstadoPedido;
+import app.NuevoPedido;
+import app.PaginaPedidos;
 import app.Pedido;
+import app.PedidoCursor;
+import app.PedidoFiltro;
 
 import java.sql.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Repositorio de pedidos.
@@ -16,6 +29,15 @@ import java.util.List;
  */
 public class PedidoRepository {
 
+    // Columnas y JOINs comunes a los listados de pedidos
+    private static final String SELECT_PEDIDOS =
+        "SELECT p.id, p.fecha, p.estado, p.cantidad, p.unidad, p.observaciones, p.version, " +
+        "       f.nombre AS nombre_formula, pac.nombre AS nombre_paciente, " +
+        "       pac.id AS id_paciente, p.formula_personalizada " +
+        "FROM pedidos p " +
+        "JOIN pacientes pac ON pac.id = p.id_paciente " +
+        "LEFT JOIN formulas f ON f.id = p.id_formula ";
+
     /**
      * Recupera el historial de pedidos de un paciente específico.
      * Utiliza JOINs para obtener los nombres asociados a los IDs de fórmulas y pacientes.
@@ -24,17 +46,11 @@ public class PedidoRepository {
         List<Pedido> lista = new ArrayList<>();
 
         // Consulta con JOIN para consolidar información de varias tablas en una sola vista
-        String sql =
-            "SELECT p.id, p.fecha, p.estado, p.cantidad, p.unidad, p.observaciones, " +
-            "       f.nombre AS nombre_formula, pac.nombre AS nombre_paciente, " +
-            "       p.formula_personalizada " +
-            "FROM pedidos p " +
-            "JOIN pacientes pac ON pac.id = p.id_paciente " +
-            "LEFT JOIN formulas f ON f.id = p.id_formula " +
+        String sql = SELECT_PEDIDOS +
             "WHERE p.id_paciente = ? " +
             "ORDER BY p.fecha DESC, p.id DESC";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, idPaciente);
@@ -60,16 +76,9 @@ public class PedidoRepository {
     public List<Pedido> findAll() {
         List<Pedido> lista = new ArrayList<>();
 
-        String sql =
-            "SELECT p.id, p.fecha, p.estado, p.cantidad, p.unidad, p.observaciones, " +
-            "       f.nombre AS nombre_formula, pac.nombre AS nombre_paciente, " +
-            "       pac.id AS id_paciente, p.formula_personalizada " +
-            "FROM pedidos p " +
-            "JOIN pacientes pac ON pac.id = p.id_paciente " +
-            "LEFT JOIN formulas f ON f.id = p.id_formula " +
-            "ORDER BY p.fecha DESC, p.id DESC";
+        String sql = SELECT_PEDIDOS + "ORDER BY p.fecha DESC, p.id DESC";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
 
@@ -84,24 +93,502 @@ public class PedidoRepository {
         return lista;
     }
 
+    /**
+     * Recorre todos los pedidos en streaming, sin cargarlos en memoria de golpe.
+     * El Stream mantiene abiertos la conexión de lectura y el ResultSet hasta que se cierra,
+     * por lo que debe usarse siempre con try-with-resources:
+     * <pre>
+     *   try (Stream&lt;Pedido&gt; pedidos = repo.streamAll(500)) { ... }
+     * </pre>
+     * @param fetchSize Número de filas que el driver lee por bloque.
+     */
+    public Stream<Pedido> streamAll(int fetchSize) {
+        return stream(SELECT_PEDIDOS + "ORDER BY p.fecha DESC, p.id DESC", stmt -> { }, fetchSize);
+    }
+
+    /**
+     * Recorre en streaming los pedidos que cumplen el filtro, en orden cronológico (fecha ASC, id ASC),
+     * que es el que esperan las exportaciones. Igual que streamAll(), debe cerrarse tras usarlo.
+     */
+    public Stream<Pedido> streamFiltered(PedidoFiltro filtro, int fetchSize) {
+        List<String> condiciones = new ArrayList<>();
+        List<Object> valores = new ArrayList<>();
+        condiciones(filtro, condiciones, valores);
+        String sql = SELECT_PEDIDOS + where(condiciones) + "ORDER BY p.fecha ASC, p.id ASC";
+        return stream(sql, stmt -> asignarValores(stmt, valores, 1), fetchSize);
+    }
+
+    /**
+     * Búsqueda de texto completo en las observaciones y en el nombre de las fórmulas personalizadas
+     * (índice FTS5, ver migración 5). El índice se consulta primero, ya ordenado por relevancia y
+     * limitado, y solo esas filas se completan con los JOIN de paciente y fórmula.
+     * @return Como mucho 'limite' pedidos; lista vacía si el texto no tiene palabras buscables.
+     */
+    public List<Pedido> search(String texto, int limite) {
+        List<Pedido> lista = new ArrayList<>();
+        String consulta = ConsultaFts.prefijos(texto);
+        if (consulta == null) {
+            return lista;
+        }
+
+        String sql = SELECT_PEDIDOS +
+            "JOIN (SELECT rowid AS id_fts, rank FROM pedidos_fts WHERE pedidos_fts MATCH ? " +
+            "      ORDER BY rank LIMIT ?) r ON r.id_fts = p.id " +
+            "ORDER BY r.rank";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, consulta);
+            stmt.setInt(2, limite);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(mapResultSetToPedido(rs, rs.getInt("id_paciente")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error buscando pedidos:");
+            e.printStackTrace();
+        }
+        return lista;
+    }
+
+    /**
+     * Añade las condiciones de un filtro, con marcadores '?', y sus valores en el mismo orden.
+     * La fecha se guarda en milisegundos desde 1970, así que un día completo es el rango de enteros
+     * [inicio del día, inicio del día siguiente) en la hora local, y el índice por fecha sigue siendo utilizable.
+     * Cada criterio tiene un índice que empieza por su columna y sigue por (fecha, id), ver migración 6.
+     */
+    private static void condiciones(PedidoFiltro filtro, List<String> condiciones, List<Object> valores) {
+        if (filtro.idPaciente() != null) {
+            condiciones.add("p.id_paciente = ?");
+            valores.add(filtro.idPaciente());
+        }
+        if (filtro.idFormula() != null) {
+            condiciones.add("p.id_formula = ?");
+            valores.add(filtro.idFormula());
+        }
+        if (filtro.personalizadas() != null) {
+            condiciones.add(filtro.personalizadas() ? "p.id_formula IS NULL" : "p.id_formula IS NOT NULL");
+        }
+        if (!filtro.estados().isEmpty()) {
+            condiciones.add("p.estado IN (" + String.join(", ", Collections.nCopies(filtro.estados().size(), "?")) + ")");
+            filtro.estados().forEach(e -> valores.add(e.codigo()));
+        }
+        if (filtro.desde() != null) {
+            condiciones.add("p.fecha >= ?");
+            valores.add(inicioDelDia(filtro.desde()));
+        }
+        if (filtro.hasta() != null) {
+            condiciones.add("p.fecha < ?");
+            valores.add(inicioDelDia(filtro.hasta().plusDays(1)));
+        }
+    }
+
+    // Primer instante del día en la zona horaria del equipo, en milisegundos
+    private static long inicioDelDia(LocalDate dia) {
+        return dia.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Cláusula WHERE con las condiciones unidas por AND, o vacía si no hay ninguna
+    private static String where(List<String> condiciones) {
+        return condiciones.isEmpty() ? "" : "WHERE " + String.join(" AND ", condiciones) + " ";
+    }
+
+    // Asigna los valores de un filtro a partir del marcador indicado; devuelve el siguiente libre
+    private static int asignarValores(PreparedStatement stmt, List<Object> valores, int desde) throws SQLException {
+        int i = desde;
+        for (Object v : valores) {
+            stmt.setObject(i++, v);
+        }
+        return i;
+    }
+
+    /**
+     * Recorre todos los pedidos llamando a la acción por cada fila, en memoria constante.
+     * Los recursos JDBC se liberan siempre al terminar, incluso si la acción lanza una excepción.
+     * @return Número de pedidos procesados.
+     */
+    public long forEach(int fetchSize, Consumer<Pedido> accion) {
+        long total = 0;
+        try (Stream<Pedido> pedidos = streamAll(fetchSize)) {
+            Iterator<Pedido> it = pedidos.iterator();
+            while (it.hasNext()) {
+                accion.accept(it.next());
+                total++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Asigna los parámetros de una consulta en streaming.
+     */
+    @FunctionalInterface
+    private interface ParametrosConsulta {
+        void asignar(PreparedStatement stmt) throws SQLException;
+    }
+
+    /**
+     * Crea un Stream perezoso sobre un ResultSet. Cada elemento se lee del cursor al pedirlo
+     * y al cerrar el Stream se devuelven el ResultSet, la sentencia y la conexión.
+     */
+    private Stream<Pedido> stream(String sql, ParametrosConsulta parametros, int fetchSize) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = DatabaseConnection.getReadConnection();
+            stmt = conn.prepareStatement(sql);
+            stmt.setFetchSize(fetchSize);
+            parametros.asignar(stmt);
+            rs = stmt.executeQuery();
+        } catch (SQLException e) {
+            cerrarSilencioso(rs, stmt, conn);
+            throw new IllegalStateException("Error abriendo la lectura en streaming de pedidos", e);
+        }
+
+        final ResultSet cursor = rs;
+        final PreparedStatement sentencia = stmt;
+        final Connection conexion = conn;
+
+        Spliterator<Pedido> spliterator = new Spliterators.AbstractSpliterator<>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Pedido> accion) {
+                try {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                    accion.accept(mapResultSetToPedido(cursor, cursor.getInt("id_paciente")));
+                    return true;
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Error leyendo pedidos en streaming", e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false)
+                .onClose(() -> cerrarSilencioso(cursor, sentencia, conexion));
+    }
+
+    // Cierra los recursos JDBC en orden inverso, registrando los errores sin propagarlos
+    private static void cerrarSilencioso(AutoCloseable... recursos) {
+        for (AutoCloseable r : recursos) {
+            if (r == null) {
+                continue;
+            }
+            try {
+                r.close();
+            } catch (Exception e) {
+                System.err.println("Error liberando recursos de la lectura en streaming:");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Cuenta los pedidos registrados. Se usa para dimensionar las vistas paginadas.
+     */
+    public int countAll() {
+        return count(PedidoFiltro.TODOS);
+    }
+
+    /**
+     * Cuenta los pedidos que cumplen el filtro.
+     */
+    public int count(PedidoFiltro filtro) {
+        List<String> condiciones = new ArrayList<>();
+        List<Object> valores = new ArrayList<>();
+        condiciones(filtro, condiciones, valores);
+        String sql = "SELECT COUNT(*) FROM pedidos p " + where(condiciones);
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            asignarValores(stmt, valores, 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error contando pedidos:");
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Recupera un tramo del listado global por posición (LIMIT/OFFSET).
+     * Solo se usa cuando no hay una página vecina desde la que continuar por keyset,
+     * por ejemplo al arrastrar la barra de desplazamiento a mitad de la tabla.
+     * @param ascendente true para ordenar por fecha ascendente, false para descendente.
+     */
+    public List<Pedido> findSlice(int offset, int limite, boolean ascendente) {
+        return findSlice(PedidoFiltro.TODOS, offset, limite, ascendente);
+    }
+
+    /**
+     * Igual que findSlice, pero solo entre los pedidos que cumplen el filtro.
+     */
+    public List<Pedido> findSlice(PedidoFiltro filtro, int offset, int limite, boolean ascendente) {
+        List<Pedido> lista = new ArrayList<>();
+        List<String> condiciones = new ArrayList<>();
+        List<Object> valores = new ArrayList<>();
+        condiciones(filtro, condiciones, valores);
+        String sql = SELECT_PEDIDOS + where(condiciones)
+                + (ascendente ? "ORDER BY p.fecha ASC, p.id ASC " : "ORDER BY p.fecha DESC, p.id DESC ")
+                + "LIMIT ? OFFSET ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int i = asignarValores(stmt, valores, 1);
+            stmt.setInt(i++, limite);
+            stmt.setInt(i, offset);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(mapResultSetToPedido(rs, rs.getInt("id_paciente")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo tramo de pedidos:");
+            e.printStackTrace();
+        }
+        return lista;
+    }
+
+    /**
+     * Recupera una página del listado global de pedidos mediante paginación keyset.
+     * @param cursor     Posición de referencia; null para la primera página.
+     * @param tamano     Número máximo de pedidos por página.
+     * @param haciaAtras false para la página siguiente al cursor, true para la anterior.
+     */
+    public PaginaPedidos findPage(PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return findPage(PedidoFiltro.TODOS, cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Página de los pedidos que cumplen el filtro, mediante paginación keyset.
+     */
+    public PaginaPedidos findPage(PedidoFiltro filtro, PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return buscarPagina(filtro, cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Recupera una página del historial de un paciente mediante paginación keyset.
+     */
+    public PaginaPedidos findPageByPacienteId(int idPaciente, PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return buscarPagina(PedidoFiltro.TODOS.delPaciente(idPaciente), cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Consulta común de paginación. Se pide una fila de más para saber si hay otra página
+     * y la comparación por fila (fecha, id) aprovecha los índices de las migraciones 1 y 6.
+     * Hacia atrás se recorre en orden ascendente y se invierte el resultado.
+     */
+    private PaginaPedidos buscarPagina(PedidoFiltro filtro, PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        List<Pedido> lista = new ArrayList<>();
+
+        List<String> condiciones = new ArrayList<>();
+        List<Object> valores = new ArrayList<>();
+        condiciones(filtro, condiciones, valores);
+        if (cursor != null) {
+            condiciones.add(haciaAtras ? "(p.fecha, p.id) > (?, ?)" : "(p.fecha, p.id) < (?, ?)");
+        }
+        String sql = SELECT_PEDIDOS + where(condiciones)
+                + (haciaAtras ? "ORDER BY p.fecha ASC, p.id ASC " : "ORDER BY p.fecha DESC, p.id DESC ")
+                + "LIMIT ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int i = asignarValores(stmt, valores, 1);
+            if (cursor != null) {
+                stmt.setLong(i++, cursor.fecha());
+                stmt.setInt(i++, cursor.id());
+            }
+            stmt.setInt(i, tamano + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(mapResultSetToPedido(rs, rs.getInt("id_paciente")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo página de pedidos:");
+            e.printStackTrace();
+        }
+
+        boolean hayMas = lista.size() > tamano;
+        if (hayMas) {
+            lista.remove(lista.size() - 1);
+        }
+        if (haciaAtras) {
+            Collections.reverse(lista);
+        }
+        if (lista.isEmpty()) {
+            return new PaginaPedidos(lista, null, null);
+        }
+
+        // Hacia delante siempre hay página anterior si partimos de un cursor; hacia atrás, siempre hay siguiente
+        boolean hayAnterior = haciaAtras ? hayMas : cursor != null;
+        boolean haySiguiente = haciaAtras ? cursor != null : hayMas;
+
+        return new PaginaPedidos(
+                lista,
+                hayAnterior ? PedidoCursor.de(lista.get(0)) : null,
+                haySiguiente ? PedidoCursor.de(lista.get(lista.size() - 1)) : null);
+    }
+
+    /**
+     * Recupera los pedidos creados o modificados después de una versión de cambio dada,
+     * en orden de versión. Permite refrescar las vistas aplicando solo las diferencias.
+     * @param version Última versión ya conocida por quien consulta (0 para todos).
+     */
+    public List<Pedido> findChangedSince(long version) {
+        return buscarCambios(null, version);
+    }
+
+    /**
+     * Igual que findChangedSince, pero limitado a los pedidos de un paciente.
+     */
+    public List<Pedido> findChangedSinceByPacienteId(int idPaciente, long version) {
+        return buscarCambios(idPaciente, version);
+    }
+
+    // Consulta común de cambios; usa el índice idx_pedidos_version
+    private List<Pedido> buscarCambios(Integer idPaciente, long version) {
+        List<Pedido> lista = new ArrayList<>();
+        String sql = SELECT_PEDIDOS + "WHERE p.version > ? "
+                + (idPaciente != null ? "AND p.id_paciente = ? " : "")
+                + "ORDER BY p.version ASC";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, version);
+            if (idPaciente != null) {
+                stmt.setInt(2, idPaciente);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(mapResultSetToPedido(rs, rs.getInt("id_paciente")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo pedidos modificados:");
+            e.printStackTrace();
+        }
+        return lista;
+    }
+
+    /**
+     * Cuenta los pedidos que preceden al cursor en el orden del listado global,
+     * es decir, la posición que ocupa el pedido del cursor en la tabla.
+     * @return La posición, o -1 si no se pudo calcular.
+     */
+    public int countBefore(PedidoCursor cursor, boolean ascendente) {
+        return countBefore(PedidoFiltro.TODOS, cursor, ascendente);
+    }
+
+    /**
+     * Posición del pedido del cursor dentro del listado de los pedidos que cumplen el filtro.
+     */
+    public int countBefore(PedidoFiltro filtro, PedidoCursor cursor, boolean ascendente) {
+        List<String> condiciones = new ArrayList<>();
+        List<Object> valores = new ArrayList<>();
+        condiciones(filtro, condiciones, valores);
+        condiciones.add(ascendente ? "(p.fecha, p.id) < (?, ?)" : "(p.fecha, p.id) > (?, ?)");
+        String sql = "SELECT COUNT(*) FROM pedidos p " + where(condiciones);
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int i = asignarValores(stmt, valores, 1);
+            stmt.setLong(i++, cursor.fecha());
+            stmt.setInt(i, cursor.id());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error calculando la posición de un pedido:");
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * Mayor identificador de pedido registrado (0 si no hay ninguno).
+     * Como los ids son AUTOINCREMENT y nunca se reutilizan, sirve para distinguir altas de modificaciones.
+     */
+    public int findMaxId() {
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM pedidos";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo el último pedido:");
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
     /**
      * Inserta una nueva solicitud de pedido en la base de datos.
      * Gestiona tanto fórmulas del catálogo como personalizadas mediante lógica condicional de tipos.
      */
     public boolean insert(int idPaciente, Integer idFormula, String formulaPersonalizada,
                           int cantidad, String unidad, String observaciones) {
+        try {
+            return DatabaseConnection.executeWrite(conn ->
+                    insert(idPaciente, idFormula, formulaPersonalizada, cantidad, unidad, observaciones, conn) > 0);
+
+        } catch (SQLException e) {
+            System.err.println("Error insertando pedido:");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Inserta un pedido usando una conexión externa.
+     * Nota técnica: Permite agrupar varias inserciones en una misma transacción
+     * (lo usa la cola de escritura de PedidoService para hacer "group commit").
+     * @return El ID generado para el pedido o -1 si no se insertó.
+     */
+    public int insert(int idPaciente, Integer idFormula, String formulaPersonalizada,
+                      int cantidad, String unidad, String observaciones, Connection conn) throws SQLException {
 
         String sql =
             "INSERT INTO pedidos " +
             "(id_paciente, id_formula, formula_personalizada, cantidad, unidad, observaciones, fecha, estado) " +
             "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
-        // Generación de timestamp para el registro de la transacción
-        String fecha = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        // Instante del alta en milisegundos; el formato de presentación lo aplica Pedido
+        long fecha = System.currentTimeMillis();
 
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, idPaciente);
 
             // Gestión de nulos para la clave foránea si la fórmula es personalizada
@@ -115,30 +602,63 @@ public class PedidoRepository {
             stmt.setInt(4, cantidad);
             stmt.setString(5, unidad);
             stmt.setString(6, observaciones);
-            stmt.setString(7, fecha);
-            stmt.setString(8, "Pendiente"); // Estado inicial por defecto
+            stmt.setLong(7, fecha);
+            stmt.setInt(8, EstadoPedido.PENDIENTE.codigo()); // Estado inicial por defecto
+            stmt.executeUpdate();
 
-            return stmt.executeUpdate() > 0;
-
-        } catch (SQLException e) {
-            System.err.println("Error insertando pedido:");
-            e.printStackTrace();
-            return false;
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
         }
+        return -1;
     }
 
     /**
-     * Actualiza el estado de un pedido (ej. de Pendiente a Entregado).
+     * Inserta un bloque de pedidos completos (con su fecha y estado) mediante executeBatch.
+     * No confirma la transacción: quien llama agrupa los bloques en transacciones del tamaño que quiera.
+     * @return Número de pedidos insertados.
      */
-    public boolean updateEstado(int idPedido, String nuevoEstado) {
-        String sql = "UPDATE pedidos SET estado = ? WHERE id = ?";
+    public int insertBatch(List<NuevoPedido> pedidos, Connection conn) throws SQLException {
+        String sql =
+            "INSERT INTO pedidos " +
+            "(id_paciente, id_formula, formula_personalizada, cantidad, unidad, observaciones, fecha, estado) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        int insertados = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (NuevoPedido p : pedidos) {
+                stmt.setInt(1, p.idPaciente());
+                if (p.idFormula() == null) {
+                    stmt.setNull(2, Types.INTEGER);
+                } else {
+                    stmt.setInt(2, p.idFormula());
+                }
+                stmt.setString(3, p.formulaPersonalizada());
+                stmt.setInt(4, p.cantidad());
+                stmt.setString(5, p.unidad());
+                stmt.setString(6, p.observaciones());
+                stmt.setLong(7, p.fecha());
+                stmt.setInt(8, p.estado().codigo());
+                stmt.addBatch();
+            }
 
-            stmt.setString(1, nuevoEstado);
-            stmt.setInt(2, idPedido);
-            return stmt.executeUpdate() > 0;
+            for (int filas : stmt.executeBatch()) {
+                if (filas > 0 || filas == Statement.SUCCESS_NO_INFO) {
+                    insertados++;
+                }
+            }
+        }
+        return insertados;
+    }
+
+    /**
+     * Actualiza el estado de un pedido (ej. de Pendiente a Entregado).
+     */
+    public boolean updateEstado(int idPedido, EstadoPedido nuevoEstado, Set<EstadoPedido> desde) {
+        try {
+            return DatabaseConnection.executeWrite(conn -> updateEstado(idPedido, nuevoEstado, desde, conn));
 
         } catch (SQLException e) {
             System.err.println("Error actualizando estado del pedido:");
@@ -147,6 +667,72 @@ public class PedidoRepository {
         }
     }
 
+    /**
+     * Actualiza el estado de un pedido usando una conexión externa (para transacciones agrupadas).
+     * Solo cambia si el estado actual está en 'desde': la comprobación va en la propia sentencia,
+     * así no hay carrera con otro terminal que cambie el mismo pedido entre una lectura y la escritura.
+     * @return true si el pedido existía y estaba en uno de los estados de partida.
+     */
+    public boolean updateEstado(int idPedido, EstadoPedido nuevoEstado, Set<EstadoPedido> desde,
+                                Connection conn) throws SQLException {
+        if (desde.isEmpty()) {
+            return false;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sqlCambioEstado(desde))) {
+            int i = asignarCambioEstado(stmt, nuevoEstado, desde);
+            stmt.setInt(i, idPedido);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Cambia el estado de varios pedidos a la vez con una sola sentencia preparada en lote (executeBatch).
+     * Se ejecuta sobre la conexión recibida, así que todos los cambios van en la transacción de quien llama.
+     * Como en updateEstado, solo cambian los pedidos cuyo estado actual está en 'desde'.
+     * @return Los ids de los pedidos que realmente se actualizaron.
+     */
+    public List<Integer> updateEstados(List<Integer> idsPedido, EstadoPedido nuevoEstado, Set<EstadoPedido> desde,
+                                       Connection conn) throws SQLException {
+        List<Integer> actualizados = new ArrayList<>();
+        if (desde.isEmpty()) {
+            return actualizados;
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sqlCambioEstado(desde))) {
+            for (int id : idsPedido) {
+                int i = asignarCambioEstado(stmt, nuevoEstado, desde);
+                stmt.setInt(i, id);
+                stmt.addBatch();
+            }
+            int[] filas = stmt.executeBatch();
+
+            for (int i = 0; i < filas.length; i++) {
+                // SUCCESS_NO_INFO: el driver no informa del recuento, pero la sentencia se ejecutó
+                if (filas[i] > 0 || filas[i] == Statement.SUCCESS_NO_INFO) {
+                    actualizados.add(idsPedido.get(i));
+                }
+            }
+        }
+        return actualizados;
+    }
+
+    // UPDATE del estado condicionado al estado actual; el último parámetro es el id del pedido
+    private static String sqlCambioEstado(Set<EstadoPedido> desde) {
+        return "UPDATE pedidos SET estado = ? WHERE estado IN ("
+                + String.join(", ", Collections.nCopies(desde.size(), "?")) + ") AND id = ?";
+    }
+
+    // Asigna el nuevo estado y los de partida; devuelve el índice del parámetro del id
+    private static int asignarCambioEstado(PreparedStatement stmt, EstadoPedido nuevoEstado,
+                                           Set<EstadoPedido> desde) throws SQLException {
+        int i = 1;
+        stmt.setInt(i++, nuevoEstado.codigo());
+        for (EstadoPedido e : desde) {
+            stmt.setInt(i++, e.codigo());
+        }
+        return i;
+    }
+
     /**
      * Método privado de utilidad para transformar las filas del ResultSet en objetos Pedido.
      * Implementa lógica de negocio para decidir qué nombre de fórmula mostrar.
@@ -161,16 +747,18 @@ public class PedidoRepository {
                     ? formulaPersonal : "(fórmula personalizada)";
         }
 
-        return new Pedido(
+        Pedido pedido = new Pedido(
                 rs.getInt("id"),
                 idPaciente,
                 rs.getString("nombre_paciente"),
-                rs.getString("fecha"),
+                rs.getLong("fecha"),
                 nombreFormula,
-                rs.getString("estado"),
+                EstadoPedido.deCodigo(rs.getInt("estado")),
                 rs.getInt("cantidad"),
                 rs.getString("unidad"),
                 rs.getString("observaciones")
         );
+        pedido.setVersion(rs.getLong("version"));
+        return pedido;
     }
 }
\ No newline at end of file
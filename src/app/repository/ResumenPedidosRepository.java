@@ -0,0 +1,138 @@
+package app.repository;
+
+import app.DatabaseConnection;
+import app.DemandaFormula;
+import app.EstadoPedido;
+import app.ResumenPedidos;
+
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repositorio de los resúmenes de pedidos que mantienen los triggers:
+ *  - contadores por estado (tablas 'pedidos_por_estado' y 'pedidos_por_estado_dia', migración 7)
+ *  - demanda por fórmula y unidad (tablas 'demanda_diaria' y 'demanda_semanal', migración 8)
+ * Se actualizan con cada alta, cambio o baja de pedido, así que leerlos cuesta lo mismo
+ * haya cien pedidos o un millón.
+ */
+public class ResumenPedidosRepository {
+
+    // Día local (yyyy-MM-dd) de un pedido, cuya fecha está en milisegundos; igual que en los triggers
+    private static final String DIA_LOCAL = "date(fecha / 1000, 'unixepoch', 'localtime')";
+
+    /**
+     * Lee los contadores globales y los del día indicado.
+     * @return El resumen, o null si no se pudo consultar.
+     */
+    public ResumenPedidos find(LocalDate dia) {
+        String sqlTotal = "SELECT estado, total FROM pedidos_por_estado";
+        String sqlDia = "SELECT estado, total FROM pedidos_por_estado_dia WHERE dia = ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmtTotal = conn.prepareStatement(sqlTotal);
+             PreparedStatement stmtDia = conn.prepareStatement(sqlDia)) {
+
+            Map<EstadoPedido, Integer> porEstado = new EnumMap<>(EstadoPedido.class);
+            try (ResultSet rs = stmtTotal.executeQuery()) {
+                while (rs.next()) {
+                    porEstado.put(EstadoPedido.deCodigo(rs.getInt("estado")), rs.getInt("total"));
+                }
+            }
+
+            Map<EstadoPedido, Integer> delDia = new EnumMap<>(EstadoPedido.class);
+            stmtDia.setString(1, dia.toString());
+            try (ResultSet rs = stmtDia.executeQuery()) {
+                while (rs.next()) {
+                    delDia.put(EstadoPedido.deCodigo(rs.getInt("estado")), rs.getInt("total"));
+                }
+            }
+            return new ResumenPedidos(porEstado, delDia);
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo el resumen de pedidos:");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Demanda por fórmula y unidad en cada periodo del rango, leída solo de los resúmenes.
+     * Los meses se agregan a partir de la demanda diaria, que tiene como mucho una fila por día, fórmula y unidad.
+     * @param desde Primer día incluido, o null para no acotar.
+     * @param hasta Último día incluido, o null para no acotar.
+     */
+    public List<DemandaFormula> findDemanda(DemandaFormula.Periodo periodo, LocalDate desde, LocalDate hasta) {
+        List<DemandaFormula> lista = new ArrayList<>();
+
+        String tabla = periodo == DemandaFormula.Periodo.SEMANA ? "demanda_semanal" : "demanda_diaria";
+        String columna = periodo == DemandaFormula.Periodo.SEMANA ? "d.semana" : "d.dia";
+        String agrupacion = periodo == DemandaFormula.Periodo.MES ? "substr(d.dia, 1, 7)" : columna;
+        // Una semana entra en el rango si su lunes no es anterior al lunes de la semana de "desde"
+        LocalDate inicio = desde == null ? null
+                : periodo == DemandaFormula.Periodo.SEMANA ? desde.with(DayOfWeek.MONDAY) : desde;
+
+        String sql = "SELECT " + agrupacion + " AS periodo, d.id_formula," +
+                " CASE WHEN d.id_formula = 0 THEN 'Personalizada' ELSE COALESCE(f.nombre, '(Fórmula eliminada)') END AS formula," +
+                " d.unidad, SUM(d.pedidos) AS pedidos, SUM(d.cantidad) AS cantidad" +
+                " FROM " + tabla + " d LEFT JOIN formulas f ON f.id = d.id_formula" +
+                " WHERE " + columna + " >= ? AND " + columna + " <= ?" +
+                " GROUP BY 1, 2, 4 HAVING SUM(d.pedidos) > 0" +
+                " ORDER BY 1, cantidad DESC";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            // Sin límites se usan cadenas que ordenan antes y después de cualquier fecha
+            stmt.setString(1, inicio == null ? "" : inicio.toString());
+            stmt.setString(2, hasta == null ? "9999-12-31" : hasta.toString());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lista.add(new DemandaFormula(
+                            rs.getString("periodo"),
+                            rs.getInt("id_formula"),
+                            rs.getString("formula"),
+                            rs.getString("unidad"),
+                            rs.getLong("pedidos"),
+                            rs.getLong("cantidad")
+                    ));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo la demanda por " + periodo + ":");
+            e.printStackTrace();
+        }
+        return lista;
+    }
+
+    /**
+     * Recalcula todos los resúmenes desde la tabla de pedidos, sobre la conexión indicada (no hace commit).
+     * Sirve para cargar pedidos antiguos o corregir los resúmenes si se desincronizaron.
+     */
+    public void reconstruir(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM pedidos_por_estado");
+            stmt.execute("DELETE FROM pedidos_por_estado_dia");
+            stmt.execute("DELETE FROM demanda_diaria");
+            stmt.execute("DELETE FROM demanda_semanal");
+
+            stmt.execute("INSERT INTO pedidos_por_estado (estado, total)" +
+                    " SELECT estado, COUNT(*) FROM pedidos GROUP BY estado");
+            stmt.execute("INSERT INTO pedidos_por_estado_dia (dia, estado, total)" +
+                    " SELECT " + DIA_LOCAL + ", estado, COUNT(*) FROM pedidos GROUP BY 1, 2");
+            stmt.execute("INSERT INTO demanda_diaria (dia, id_formula, unidad, pedidos, cantidad)" +
+                    " SELECT " + DIA_LOCAL + ", COALESCE(id_formula, 0), COALESCE(unidad, ''), COUNT(*), SUM(cantidad)" +
+                    " FROM pedidos WHERE estado <> " + EstadoPedido.CANCELADO.codigo() + " GROUP BY 1, 2, 3");
+            // La semanal se obtiene de la diaria, mucho más pequeña que la tabla de pedidos
+            stmt.execute("INSERT INTO demanda_semanal (semana, id_formula, unidad, pedidos, cantidad)" +
+                    " SELECT date(dia, '-6 days', 'weekday 1'), id_formula, unidad, SUM(pedidos), SUM(cantidad)" +
+                    " FROM demanda_diaria GROUP BY 1, 2, 3");
+        }
+    }
+}
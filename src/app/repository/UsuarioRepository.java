@@ -1,9 +1,14 @@
 package app.repository;
 
 import app.DatabaseConnection;
+import app.NuevoPaciente;
 import app.User;
 
 import java.sql.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Repositorio de usuarios.
@@ -20,7 +25,7 @@ public class UsuarioRepository {
     public User findByEmail(String email) {
         String sql = "SELECT * FROM usuarios WHERE email = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             // Evitamos inyección de código malicioso usando parámetros en la consulta
@@ -47,25 +52,39 @@ public class UsuarioRepository {
     }
 
     /**
-     * Recupera la contraseña encriptada (hash) asociada a un email.
-     * Se utiliza durante el proceso de login para comparar con la clave introducida por el usuario.
+     * Datos necesarios para iniciar sesión: el perfil y el hash de la contraseña, leídos juntos.
      */
-    public String getPasswordHashByEmail(String email) {
-        String sql = "SELECT password FROM usuarios WHERE email = ?";
+    public record Credenciales(User usuario, String passwordHash) { }
 
-        try (Connection conn = DatabaseConnection.getConnection();
+    /**
+     * Recupera en una sola consulta el perfil y la contraseña encriptada (hash) asociados a un email.
+     * Se utiliza durante el proceso de login: el hash se compara con la clave introducida y,
+     * si coincide, el perfil ya está cargado sin volver a la base de datos.
+     * @return Las credenciales, o null si el email no está registrado.
+     */
+    public Credenciales findCredencialesByEmail(String email) {
+        String sql = "SELECT id, email, password, nombre, telefono, rol FROM usuarios WHERE email = ?";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, email);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getString("password");
+                    User usuario = new User(
+                            rs.getInt("id"),
+                            rs.getString("email"),
+                            rs.getString("nombre"),
+                            rs.getString("telefono"),
+                            rs.getString("rol")
+                    );
+                    return new Credenciales(usuario, rs.getString("password"));
                 }
             }
 
         } catch (SQLException e) {
-            System.err.println("Error obteniendo hash de contraseña:");
+            System.err.println("Error obteniendo credenciales por email:");
             e.printStackTrace();
         }
         return null;
@@ -78,7 +97,7 @@ public class UsuarioRepository {
     public boolean existsByEmail(String email) {
         String sql = "SELECT COUNT(*) FROM usuarios WHERE email = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, email);
@@ -97,6 +116,29 @@ public class UsuarioRepository {
         return false;
     }
 
+    /**
+     * Recupera todos los emails registrados, en minúsculas.
+     * Se usa en las altas masivas para detectar duplicados en memoria en lugar de consultar fila a fila.
+     */
+    public Set<String> findAllEmails() {
+        Set<String> emails = new HashSet<>();
+        String sql = "SELECT email FROM usuarios";
+
+        try (Connection conn = DatabaseConnection.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next()) {
+                emails.add(rs.getString(1).trim().toLowerCase(Locale.ROOT));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error obteniendo los emails registrados:");
+            e.printStackTrace();
+        }
+        return emails;
+    }
+
     /**
      * Crea un nuevo registro de usuario.
      * Nota: Recibe la conexión externa para poder realizar esta operación 
@@ -124,6 +166,33 @@ public class UsuarioRepository {
         return -1;
     }
 
+    /**
+     * Inserta un bloque de usuarios con rol 'paciente' mediante executeBatch.
+     * No confirma la transacción: las fichas de paciente se crean después en la misma transacción.
+     * @return Número de usuarios insertados.
+     */
+    public int insertBatch(List<NuevoPaciente> pacientes, Connection conn) throws SQLException {
+        String sql = "INSERT INTO usuarios (email, password, nombre, telefono, rol) VALUES (?, ?, ?, ?, 'paciente')";
+
+        int insertados = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (NuevoPaciente p : pacientes) {
+                stmt.setString(1, p.email());
+                stmt.setString(2, p.passwordHash());
+                stmt.setString(3, p.nombre());
+                stmt.setString(4, p.telefono());
+                stmt.addBatch();
+            }
+
+            for (int filas : stmt.executeBatch()) {
+                if (filas > 0 || filas == Statement.SUCCESS_NO_INFO) {
+                    insertados++;
+                }
+            }
+        }
+        return insertados;
+    }
+
     /**
      * Modifica la contraseña de un usuario.
      * @param email El correo que identifica al usuario.
@@ -132,12 +201,14 @@ public class UsuarioRepository {
     public boolean updatePassword(String email, String passwordHash) {
         String sql = "UPDATE usuarios SET password = ? WHERE email = ?";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, passwordHash);
-            stmt.setString(2, email);
-            return stmt.executeUpdate() > 0;
+        try {
+            return DatabaseConnection.executeWrite(conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, passwordHash);
+                    stmt.setString(2, email);
+                    return stmt.executeUpdate() > 0;
+                }
+            });
 
         } catch (SQLException e) {
             System.err.println("Error actualizando contraseña:");
@@ -1,6 +1,7 @@
 package app.service;
 
 import app.DatabaseConnection;
+import app.Paciente;
 import app.User;
 import app.repository.PacienteRepository;
 import app.repository.UsuarioRepository;
@@ -8,6 +9,9 @@ import org.mindrot.jbcrypt.BCrypt;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Servicio de autenticación.
@@ -20,26 +24,57 @@ public class AuthService {
     private final UsuarioRepository usuarioRepository = new UsuarioRepository();
     private final PacienteRepository pacienteRepository = new PacienteRepository();
 
+    // Hilos para el login asíncrono: la consulta, la comprobación BCrypt y las precargas van en paralelo
+    private static final ExecutorService HILOS = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Resultado de un inicio de sesión correcto.
+     * @param paciente Ficha del paciente ya cargada (null para administradores o si no tiene ficha).
+     */
+    public record Sesion(User usuario, Paciente paciente) { }
+
     /**
      * Proceso de inicio de sesión.
      * Compara la contraseña introducida con el hash de la base de datos de forma segura.
      * @return El objeto User si la autenticación es válida, null en caso contrario.
      */
     public User login(String email, String password) {
-        // Obtenemos la contraseña encriptada almacenada para este email
-        String hashGuardado = usuarioRepository.getPasswordHashByEmail(email);
+        // Perfil y contraseña encriptada en una sola consulta
+        UsuarioRepository.Credenciales credenciales = usuarioRepository.findCredencialesByEmail(email);
 
-        if (hashGuardado == null) {
+        if (credenciales == null) {
             return null; // El usuario no existe
         }
 
         // Verificamos si la contraseña coincide usando la librería BCrypt
-        if (!BCrypt.checkpw(password, hashGuardado)) {
-            return null; // Contraseña incorrecta
-        }
+        return BCrypt.checkpw(password, credenciales.passwordHash()) ? credenciales.usuario() : null;
+    }
 
-        // Si todo está bien, devolvemos el perfil completo del usuario
-        return usuarioRepository.findByEmail(email);
+    /**
+     * Inicio de sesión en segundo plano, para no congelar la interfaz durante la comprobación BCrypt
+     * (deliberadamente lenta). Mientras se comprueba la contraseña se cargan en paralelo la ficha
+     * del paciente y el catálogo de fórmulas, de modo que su ventana se abre sin más esperas;
+     * si la contraseña es incorrecta, la ficha leída simplemente se descarta.
+     * @return Un futuro con la sesión, o con null si el email o la contraseña no son válidos.
+     */
+    public CompletableFuture<Sesion> loginAsync(String email, String password) {
+        return CompletableFuture.supplyAsync(() -> usuarioRepository.findCredencialesByEmail(email), HILOS)
+                .thenCompose(credenciales -> {
+                    if (credenciales == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    User usuario = credenciales.usuario();
+
+                    CompletableFuture<Paciente> paciente = CompletableFuture.completedFuture(null);
+                    if (!"admin".equalsIgnoreCase(usuario.getRol())) {
+                        paciente = CompletableFuture.supplyAsync(() -> pacienteRepository.findByUserId(usuario.getId()), HILOS);
+                        CompletableFuture.runAsync(FormulaService::precargarCatalogo, HILOS);
+                    }
+
+                    return CompletableFuture
+                            .supplyAsync(() -> BCrypt.checkpw(password, credenciales.passwordHash()), HILOS)
+                            .thenCombine(paciente, (valida, ficha) -> valida ? new Sesion(usuario, ficha) : null);
+                });
     }
 
     /**
@@ -73,15 +108,16 @@ public class AuthService {
             }
 
             // 2. Insertamos la ficha de paciente vinculada al usuario creado
-            boolean pacienteInsertado = pacienteRepository.insert(idUsuario, nombre, telefono, email, conn);
+            int idPaciente = pacienteRepository.insert(idUsuario, nombre, telefono, email, conn);
 
-            if (!pacienteInsertado) {
+            if (idPaciente <= 0) {
                 conn.rollback(); // Error en el segundo paso: deshacemos cambios para no dejar datos huérfanos
                 return false;
             }
 
             // Si ambos pasos han tenido éxito, confirmamos definitivamente los cambios
             conn.commit();
+            EventBus.getInstance().publicar(CambioDatos.Entidad.PACIENTE, CambioDatos.Tipo.CREADO, idPaciente);
             return true;
 
         } catch (SQLException e) {
@@ -0,0 +1,21 @@
+package app.service;
+
+import java.util.Set;
+
+/**
+ * Evento de cambio emitido por la capa de servicios tras confirmar una escritura.
+ *
+ * @param entidad Tipo de entidad afectada.
+ * @param tipo    Alta, modificación o baja; EXTERNO si el cambio lo hizo otro proceso y no se conocen las filas.
+ * @param ids     Identificadores afectados (varios si el bus agrupó una ráfaga de escrituras; vacío si EXTERNO).
+ */
+public record CambioDatos(Entidad entidad, Tipo tipo, Set<Integer> ids) {
+
+    public enum Entidad { PEDIDO, FORMULA, PACIENTE }
+
+    public enum Tipo { CREADO, ACTUALIZADO, ELIMINADO, EXTERNO }
+
+    public CambioDatos {
+        ids = Set.copyOf(ids);
+    }
+}
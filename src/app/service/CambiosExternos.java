@@ -0,0 +1,46 @@
+package app.service;
+
+import app.DatabaseConnection;
+
+import java.util.Set;
+
+/**
+ * Puente entre la vigilancia de la base de datos y el bus de eventos.
+ * Cuando DatabaseConnection detecta que una tabla ha cambiado (normalmente porque otra instancia
+ * de PharmacyFM escribió en el mismo archivo), se publica un evento EXTERNO de la entidad
+ * correspondiente para que las vistas suscritas se refresquen.
+ *
+ * Las escrituras de este mismo proceso no llegan aquí: DatabaseConnection las descuenta,
+ * porque los servicios ya publican sus eventos incrementales (CREADO, MODIFICADO...).
+ */
+public class CambiosExternos {
+
+    private static boolean iniciado;
+
+    /**
+     * Empieza a vigilar la base de datos. Se llama una vez al arrancar, tras inicializarla.
+     */
+    public static synchronized void iniciar() {
+        if (iniciado) {
+            return;
+        }
+        iniciado = true;
+        DatabaseConnection.addChangeListener(CambiosExternos::tablasCambiadas);
+    }
+
+    private static void tablasCambiadas(Set<String> tablas) {
+        EventBus bus = EventBus.getInstance();
+
+        if (tablas.contains("pedidos")) {
+            bus.publicar(CambioDatos.Entidad.PEDIDO, CambioDatos.Tipo.EXTERNO);
+        }
+        if (tablas.contains("formulas")) {
+            // La caché se descarta antes de avisar, para que las vistas lean el catálogo nuevo
+            FormulaService.invalidarCatalogo();
+            bus.publicar(CambioDatos.Entidad.FORMULA, CambioDatos.Tipo.EXTERNO);
+        }
+        if (tablas.contains("pacientes")) {
+            bus.publicar(CambioDatos.Entidad.PACIENTE, CambioDatos.Tipo.EXTERNO);
+        }
+    }
+}
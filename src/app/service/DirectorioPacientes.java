@@ -0,0 +1,269 @@
+package app.service;
+
+import app.Paciente;
+import app.repository.PacienteRepository;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Índice en memoria de pacientes para las sugerencias mientras se escribe.
+ *
+ * Cada palabra del nombre, el email y los dígitos del teléfono, normalizados (minúsculas y sin tildes),
+ * se guardan como claves de un mapa ordenado. Buscar un prefijo es recorrer el rango [prefijo, prefijo + '\uffff'),
+ * que cuesta O(log n + resultados) y se corta en cuanto hay suficientes, así que la respuesta no depende
+ * de cuántos miles de pacientes haya.
+ *
+ * Se construye una vez desde la base de datos y después se mantiene con los eventos de pacientes del bus
+ * (altas, ediciones y cambios de otros procesos), con lo que también recoge las altas del registro
+ * y de las altas masivas sin que los repositorios tengan que conocerlo.
+ *
+ * La construcción y el mantenimiento van en un hilo propio: ni la interfaz ni el hilo del bus esperan
+ * a la base de datos. Mientras el índice no está listo, sugerir() no devuelve nada y directorioListo()
+ * permite repetir la búsqueda cuando termine.
+ */
+public class DirectorioPacientes {
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+    // Separa la clave normalizada del id del paciente; el carácter nulo ordena antes que cualquier carácter real
+    private static final char SEPARADOR = '\u0000';
+
+    private final PacienteRepository pacienteRepository = new PacienteRepository();
+
+    /**
+     * @param claves     Clave normalizada + SEPARADOR + id -> paciente; el id hace únicas las claves compartidas ("garcia").
+     * @param clavesPorId Claves de cada paciente, para poder quitarlas cuando cambia.
+     */
+    private record Indice(ConcurrentSkipListMap<String, Paciente> claves, Map<Integer, List<String>> clavesPorId) {
+
+        static Indice vacio() {
+            return new Indice(new ConcurrentSkipListMap<>(), new ConcurrentHashMap<>());
+        }
+    }
+
+    // Las recargas completas construyen un índice nuevo y lo sustituyen de golpe,
+    // así las búsquedas concurrentes nunca ven un índice a medio llenar
+    private volatile Indice actual = Indice.vacio();
+    private volatile boolean cargado;
+
+    // Hilo único para construir y mantener el índice; al ser uno solo, los cambios se aplican en orden
+    private final ExecutorService hilo = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pharmacyfm-directorio-pacientes");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean cargaPedida = new AtomicBoolean();
+    private final CompletableFuture<Void> listo = new CompletableFuture<>();
+
+    DirectorioPacientes() { }
+
+    /**
+     * Sugerencias para el texto escrito: pacientes con alguna palabra que empiece por cada una de las
+     * palabras del texto. Se devuelven copias, así la interfaz puede editarlas sin tocar el índice.
+     * No bloquea: si el índice aún no está construido, lanza su carga y devuelve una lista vacía.
+     * @param limite Máximo de pacientes devueltos.
+     */
+    public List<Paciente> sugerir(String texto, int limite) {
+        if (!cargado) {
+            cargarEnSegundoPlano();
+            return List.of();
+        }
+        String[] palabras = Arrays.stream(ESPACIOS.split(normalizar(texto)))
+                .filter(p -> !p.isEmpty())
+                .toArray(String[]::new);
+        if (palabras.length == 0 || limite <= 0) {
+            return List.of();
+        }
+
+        // El rango se recorre con la palabra más larga (la más selectiva); las demás se comprueban después
+        String guia = palabras[0];
+        for (String p : palabras) {
+            if (p.length() > guia.length()) {
+                guia = p;
+            }
+        }
+
+        Indice indice = actual;
+        Map<Integer, Paciente> encontrados = new LinkedHashMap<>();
+        ConcurrentNavigableMap<String, Paciente> rango = indice.claves().subMap(guia, true, guia + '\uffff', false);
+        for (Paciente p : rango.values()) {
+            if (encontrados.size() >= limite) {
+                break;
+            }
+            if (!encontrados.containsKey(p.getId()) && coincidenTodas(indice, p.getId(), palabras)) {
+                encontrados.put(p.getId(), copiar(p));
+            }
+        }
+        return new ArrayList<>(encontrados.values());
+    }
+
+    /**
+     * Incorpora o sustituye un paciente en el índice.
+     */
+    public synchronized void actualizar(Paciente p) {
+        quitar(p.getId());
+        indexar(actual, p);
+    }
+
+    private static void indexar(Indice indice, Paciente p) {
+        Paciente copia = copiar(p);
+        List<String> claves = claves(copia);
+        for (String clave : claves) {
+            indice.claves().put(clave + SEPARADOR + copia.getId(), copia);
+        }
+        indice.clavesPorId().put(copia.getId(), claves);
+    }
+
+    /**
+     * Quita un paciente del índice (si estaba).
+     */
+    public synchronized void quitar(int id) {
+        Indice indice = actual;
+        List<String> anteriores = indice.clavesPorId().remove(id);
+        if (anteriores != null) {
+            for (String clave : anteriores) {
+                indice.claves().remove(clave + SEPARADOR + id);
+            }
+        }
+    }
+
+    /**
+     * Reconstruye el índice completo desde la base de datos.
+     */
+    public synchronized void recargar() {
+        List<Paciente> pacientes = pacienteRepository.findAll();
+
+        // Se ordena primero en un TreeMap (sin coste de concurrencia) y el mapa concurrente
+        // se construye a partir de él de una vez, en tiempo lineal
+        TreeMap<String, Paciente> ordenadas = new TreeMap<>();
+        Map<Integer, List<String>> clavesPorId = new ConcurrentHashMap<>(pacientes.size() * 2);
+        for (Paciente p : pacientes) {
+            Paciente copia = copiar(p);
+            List<String> claves = claves(copia);
+            for (String clave : claves) {
+                ordenadas.put(clave + SEPARADOR + copia.getId(), copia);
+            }
+            clavesPorId.put(copia.getId(), claves);
+        }
+        actual = new Indice(new ConcurrentSkipListMap<>(ordenadas), clavesPorId);
+        cargado = true;
+        listo.complete(null);
+    }
+
+    /**
+     * Número de pacientes indexados.
+     */
+    public int size() {
+        return actual.clavesPorId().size();
+    }
+
+    public boolean isCargado() {
+        return cargado;
+    }
+
+    /**
+     * Lanza la construcción del índice en su hilo si aún no se ha pedido.
+     * @return Un futuro que se completa cuando el índice está listo.
+     */
+    public CompletableFuture<Void> cargarEnSegundoPlano() {
+        if (!cargado && cargaPedida.compareAndSet(false, true)) {
+            hilo.execute(() -> {
+                if (!cargado) {
+                    recargar();
+                }
+            });
+        }
+        return listo;
+    }
+
+    /**
+     * Ejecuta un trabajo de mantenimiento del índice (p. ej. aplicar un evento) en su hilo.
+     */
+    void enSegundoPlano(Runnable trabajo) {
+        hilo.execute(() -> {
+            try {
+                trabajo.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error actualizando el directorio de pacientes:");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Cada palabra de la consulta debe ser prefijo de alguna clave del paciente
+    private static boolean coincidenTodas(Indice indice, int id, String[] palabras) {
+        List<String> claves = indice.clavesPorId().get(id);
+        if (claves == null) {
+            return false;
+        }
+        for (String palabra : palabras) {
+            boolean alguna = false;
+            for (String clave : claves) {
+                if (clave.startsWith(palabra)) {
+                    alguna = true;
+                    break;
+                }
+            }
+            if (!alguna) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Palabras del nombre, email completo y teléfono (solo dígitos), sin repetir
+    private static List<String> claves(Paciente p) {
+        List<String> claves = new ArrayList<>();
+        for (String palabra : ESPACIOS.split(normalizar(p.getNombre()))) {
+            if (!palabra.isEmpty() && !claves.contains(palabra)) {
+                claves.add(palabra);
+            }
+        }
+        String email = normalizar(p.getEmail());
+        if (!email.isEmpty()) {
+            claves.add(email);
+        }
+        String telefono = p.getTelefono() == null ? "" : p.getTelefono().replaceAll("\\D", "");
+        if (!telefono.isEmpty()) {
+            claves.add(telefono);
+        }
+        return claves;
+    }
+
+    /**
+     * Minúsculas y sin tildes, para que "garcia" encuentre "García".
+     */
+    static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String minusculas = texto.trim().toLowerCase(Locale.ROOT);
+        // La mayoría de textos no llevan tildes: se evita la descomposición si todo es ASCII.
+        // No basta con comprobar si ya está en NFD: un texto ya descompuesto ("i" + tilde combinante
+        // U+0301, habitual al pegar desde macOS) es NFD y conserva las marcas que hay que quitar
+        if (minusculas.chars().allMatch(c -> c < 0x80)) {
+            return minusculas;
+        }
+        return MARCAS.matcher(Normalizer.normalize(minusculas, Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    private static Paciente copiar(Paciente p) {
+        return new Paciente(p.getId(), p.getIdUsuario(), p.getNombre(), p.getTelefono(), p.getEmail());
+    }
+}
@@ -0,0 +1,132 @@
+package app.service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Bus de eventos de cambio dentro del proceso.
+ * Los servicios publican un CambioDatos después de confirmar cada escritura y las vistas
+ * (o cachés) suscritas a esa entidad actualizan solo las filas afectadas.
+ *
+ * La entrega es asíncrona, en un hilo propio del bus: quien publica nunca espera a los oyentes.
+ * Las publicaciones que llegan dentro de una ventana corta se agrupan por entidad y tipo
+ * en un solo evento con todos sus ids, para que una ráfaga de escrituras provoque un solo refresco.
+ * Los oyentes que tocan la interfaz deben pasar al hilo de JavaFX por su cuenta.
+ */
+public class EventBus {
+
+    private static final EventBus INSTANCIA = new EventBus(Long.getLong("pharmacyfm.eventos.ventanaMs", 50));
+
+    /**
+     * Suscripción activa; cancelarla deja de entregar eventos al oyente.
+     */
+    @FunctionalInterface
+    public interface Suscripcion {
+        void cancelar();
+    }
+
+    private final long ventanaMs;
+    private final Map<CambioDatos.Entidad, List<Consumer<CambioDatos>>> oyentes =
+            new EnumMap<>(CambioDatos.Entidad.class);
+
+    // Ids pendientes de entregar, agrupados por entidad y tipo; protegido por 'this'
+    private Map<CambioDatos.Entidad, Map<CambioDatos.Tipo, Set<Integer>>> pendientes =
+            new EnumMap<>(CambioDatos.Entidad.class);
+    private boolean entregaProgramada;
+
+    private final ScheduledExecutorService hilo = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pharmacyfm-eventos");
+        t.setDaemon(true);
+        return t;
+    });
+
+    EventBus(long ventanaMs) {
+        this.ventanaMs = ventanaMs;
+        for (CambioDatos.Entidad e : CambioDatos.Entidad.values()) {
+            oyentes.put(e, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Bus compartido por toda la aplicación.
+     */
+    public static EventBus getInstance() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Registra un oyente para los cambios de una entidad.
+     */
+    public Suscripcion suscribir(CambioDatos.Entidad entidad, Consumer<CambioDatos> oyente) {
+        List<Consumer<CambioDatos>> lista = oyentes.get(entidad);
+        lista.add(oyente);
+        return () -> lista.remove(oyente);
+    }
+
+    /**
+     * Publica un cambio. Se entrega, junto con los que lleguen en la misma ventana, en el hilo del bus.
+     */
+    public void publicar(CambioDatos.Entidad entidad, CambioDatos.Tipo tipo, int... ids) {
+        synchronized (this) {
+            Set<Integer> destino = pendientes
+                    .computeIfAbsent(entidad, _ -> new EnumMap<>(CambioDatos.Tipo.class))
+                    .computeIfAbsent(tipo, _ -> new LinkedHashSet<>());
+            for (int id : ids) {
+                destino.add(id);
+            }
+            if (entregaProgramada) {
+                return;
+            }
+            entregaProgramada = true;
+        }
+        hilo.schedule(this::entregar, ventanaMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Entrega en el hilo del bus todo lo acumulado durante la ventana
+    private void entregar() {
+        Map<CambioDatos.Entidad, Map<CambioDatos.Tipo, Set<Integer>>> lote;
+        synchronized (this) {
+            lote = pendientes;
+            pendientes = new EnumMap<>(CambioDatos.Entidad.class);
+            entregaProgramada = false;
+        }
+
+        lote.forEach((entidad, porTipo) -> {
+            Set<Integer> creados = porTipo.getOrDefault(CambioDatos.Tipo.CREADO, Set.of());
+            Set<Integer> eliminados = porTipo.getOrDefault(CambioDatos.Tipo.ELIMINADO, Set.of());
+
+            // Dentro de la ventana, un alta ya incluye sus modificaciones y una baja anula lo anterior
+            porTipo.getOrDefault(CambioDatos.Tipo.ACTUALIZADO, new LinkedHashSet<>()).removeAll(creados);
+            porTipo.forEach((tipo, ids) -> {
+                if (tipo != CambioDatos.Tipo.ELIMINADO) {
+                    ids.removeAll(eliminados);
+                }
+            });
+
+            porTipo.forEach((tipo, ids) -> {
+                // Los cambios externos no traen ids: basta con que se hayan publicado
+                if (ids.isEmpty() && tipo != CambioDatos.Tipo.EXTERNO) {
+                    return;
+                }
+                CambioDatos cambio = new CambioDatos(entidad, tipo, ids);
+                for (Consumer<CambioDatos> oyente : oyentes.get(entidad)) {
+                    try {
+                        oyente.accept(cambio);
+                    } catch (RuntimeException e) {
+                        // Un oyente que falla no debe impedir la entrega al resto
+                        System.err.println("Error entregando el evento " + cambio + ":");
+                        e.printStackTrace();
+                    }
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,187 @@
+package app.service;
+
+import app.LectorCsv;
+import app.Pedido;
+import app.PedidoFiltro;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Exportación de pedidos a CSV o JSON Lines para contabilidad y para la autoridad sanitaria.
+ *
+ * Los pedidos se leen del cursor de SQLite en streaming y se escriben directamente en un búfer de archivo,
+ * sin pasar por ninguna lista: la memoria usada es la misma exporte mil filas o diez millones.
+ * El archivo se escribe primero con la extensión .parcial y solo se renombra al terminar bien,
+ * para que nunca quede a la vista una exportación a medias.
+ */
+public class ExportadorPedidos {
+
+    // Filas leídas del driver por bloque y cada cuántas filas se informa del avance
+    private static final int FETCH_SIZE = 1000;
+    private static final int AVISO_CADA = 10_000;
+
+    private static final String[] COLUMNAS = {
+            "id", "fecha", "id_paciente", "paciente", "formula", "cantidad", "unidad", "estado", "observaciones"
+    };
+
+    private final PedidoService pedidoService = new PedidoService();
+
+    /**
+     * Formato de salida; se deduce de la extensión del archivo si no se indica.
+     */
+    public enum Formato {
+        CSV, JSONL;
+
+        public static Formato deArchivo(Path archivo) {
+            String nombre = archivo.getFileName().toString().toLowerCase(Locale.ROOT);
+            return nombre.endsWith(".jsonl") || nombre.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    /**
+     * Avance de la exportación; el último se devuelve como resultado.
+     */
+    public record Progreso(long filas, long ms) {
+
+        public double filasPorSegundo() {
+            return ms == 0 ? 0 : filas * 1000.0 / ms;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d pedidos exportados (%.0f filas/s)", filas, filasPorSegundo());
+        }
+    }
+
+    /**
+     * Exporta los pedidos que cumplen el filtro, en orden cronológico.
+     * @param alAvanzar Recibe el progreso periódicamente y al final; puede llamarse desde cualquier hilo.
+     * @return El progreso final.
+     * @throws IOException si no se puede escribir el destino (no queda ningún archivo a medias).
+     */
+    public Progreso exportar(PedidoFiltro filtro, Formato formato, Path destino,
+                             Consumer<Progreso> alAvanzar) throws IOException {
+        long inicio = System.nanoTime();
+        long filas = 0;
+        Path parcial = destino.resolveSibling(destino.getFileName() + ".parcial");
+
+        try (BufferedWriter out = new BufferedWriter(
+                     new OutputStreamWriter(Files.newOutputStream(parcial), StandardCharsets.UTF_8), 64 * 1024);
+             Stream<Pedido> pedidos = pedidoService.streamPedidos(filtro, FETCH_SIZE)) {
+
+            if (formato == Formato.CSV) {
+                // BOM para que Excel reconozca el UTF-8 (tildes) al abrir el archivo
+                out.write('\uFEFF');
+                out.write(String.join(",", COLUMNAS));
+                out.write("\r\n");
+            }
+
+            Iterator<Pedido> it = pedidos.iterator();
+            while (it.hasNext()) {
+                Pedido p = it.next();
+                if (formato == Formato.CSV) {
+                    escribirCsv(out, p);
+                } else {
+                    escribirJson(out, p);
+                }
+                filas++;
+                if (filas % AVISO_CADA == 0) {
+                    alAvanzar.accept(new Progreso(filas, transcurrido(inicio)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(parcial);
+            throw e;
+        }
+
+        Files.move(parcial, destino, StandardCopyOption.REPLACE_EXISTING);
+        Progreso fin = new Progreso(filas, transcurrido(inicio));
+        alAvanzar.accept(fin);
+        return fin;
+    }
+
+    private static void escribirCsv(Writer out, Pedido p) throws IOException {
+        out.write(String.valueOf(p.getId()));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getFecha(), ','));
+        out.write(',');
+        out.write(String.valueOf(p.getIdPaciente()));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getNombrePaciente(), ','));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getNombreFormula(), ','));
+        out.write(',');
+        out.write(String.valueOf(p.getCantidad()));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getUnidad(), ','));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getEstado().etiqueta(), ','));
+        out.write(',');
+        out.write(LectorCsv.escapar(p.getObservaciones(), ','));
+        out.write("\r\n");
+    }
+
+    // Un objeto JSON por línea; los campos nulos se escriben como null
+    private static void escribirJson(Writer out, Pedido p) throws IOException {
+        out.write("{\"id\":");
+        out.write(String.valueOf(p.getId()));
+        out.write(",\"fecha\":");
+        escribirTextoJson(out, p.getFecha());
+        out.write(",\"id_paciente\":");
+        out.write(String.valueOf(p.getIdPaciente()));
+        out.write(",\"paciente\":");
+        escribirTextoJson(out, p.getNombrePaciente());
+        out.write(",\"formula\":");
+        escribirTextoJson(out, p.getNombreFormula());
+        out.write(",\"cantidad\":");
+        out.write(String.valueOf(p.getCantidad()));
+        out.write(",\"unidad\":");
+        escribirTextoJson(out, p.getUnidad());
+        out.write(",\"estado\":");
+        escribirTextoJson(out, p.getEstado().etiqueta());
+        out.write(",\"observaciones\":");
+        escribirTextoJson(out, p.getObservaciones());
+        out.write("}\n");
+    }
+
+    private static void escribirTextoJson(Writer out, String valor) throws IOException {
+        if (valor == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    private static long transcurrido(long inicioNanos) {
+        return (System.nanoTime() - inicioNanos) / 1_000_000;
+    }
+}
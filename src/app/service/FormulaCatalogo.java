@@ -0,0 +1,174 @@
+package app.service;
+
+import app.Formula;
+import app.repository.CambiosRepository;
+import app.repository.FormulaRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caché en memoria del catálogo de fórmulas con instantáneas inmutables ("copy-on-write").
+ * Las lecturas no bloquean: toman la instantánea actual de una AtomicReference.
+ * Las escrituras hechas a través de FormulaService construyen una instantánea nueva y la
+ * sustituyen de forma atómica. Los cambios hechos desde otros procesos se detectan al caducar
+ * el TTL comparando la versión del catálogo en la tabla 'cambios_tablas'.
+ */
+public class FormulaCatalogo {
+
+    // Orden del catálogo, igual que "ORDER BY nombre ASC" en FormulaRepository
+    private static final Comparator<Formula> POR_NOMBRE =
+            Comparator.comparing(Formula::getNombre, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final FormulaRepository formulaRepository = new FormulaRepository();
+    private final CambiosRepository cambiosRepository = new CambiosRepository();
+    private final long ttlNanos;
+
+    private final AtomicReference<Snapshot> actual = new AtomicReference<>();
+
+    // ---- Métricas ----
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder cargas = new LongAdder();
+    private final LongAdder revalidaciones = new LongAdder();
+
+    /**
+     * Instantánea inmutable del catálogo con índices por id y por nombre.
+     * @param version Versión del catálogo en la base de datos cuando se cargó (-1 si se desconoce).
+     */
+    record Snapshot(List<Formula> formulas, Map<Integer, Formula> porId, Map<String, Formula> porNombre,
+                    long version, long validadaEn) {
+
+        static Snapshot de(List<Formula> formulas, long version) {
+            List<Formula> ordenadas = new ArrayList<>(formulas);
+            ordenadas.sort(POR_NOMBRE);
+
+            Map<Integer, Formula> porId = new HashMap<>();
+            Map<String, Formula> porNombre = new HashMap<>();
+            for (Formula f : ordenadas) {
+                porId.put(f.getId(), f);
+                if (f.getNombre() != null) {
+                    porNombre.putIfAbsent(clave(f.getNombre()), f);
+                }
+            }
+            return new Snapshot(Collections.unmodifiableList(ordenadas),
+                    Collections.unmodifiableMap(porId),
+                    Collections.unmodifiableMap(porNombre),
+                    version, System.nanoTime());
+        }
+
+        Snapshot revalidada() {
+            return new Snapshot(formulas, porId, porNombre, version, System.nanoTime());
+        }
+    }
+
+    FormulaCatalogo(long ttlMs) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * Instantánea vigente del catálogo, cargándola o revalidándola si hace falta.
+     */
+    Snapshot get() {
+        Snapshot s = actual.get();
+        if (s == null) {
+            return recargar(null);
+        }
+        if (System.nanoTime() - s.validadaEn() < ttlNanos) {
+            aciertos.increment();
+            return s;
+        }
+
+        // TTL caducado: solo se recarga si la versión en la base de datos ha cambiado
+        revalidaciones.increment();
+        long version = cambiosRepository.getVersion("formulas");
+        if (version >= 0 && version == s.version()) {
+            aciertos.increment();
+            actual.compareAndSet(s, s.revalidada());
+            return s;
+        }
+        return recargar(s);
+    }
+
+    /**
+     * Recarga el catálogo desde la base de datos. Está sincronizado para que, si varios hilos
+     * detectan a la vez que hay que recargar, solo uno vaya a la base de datos.
+     */
+    private synchronized Snapshot recargar(Snapshot vista) {
+        Snapshot s = actual.get();
+        if (s != vista && s != null) {
+            return s; // Otro hilo ya la recargó mientras esperábamos
+        }
+
+        cargas.increment();
+        // La versión se lee antes que los datos: si cambia entre medias, la próxima revalidación recargará
+        long version = cambiosRepository.getVersion("formulas");
+        List<Formula> formulas = formulaRepository.findAll();
+        if (formulas == null) {
+            // Fallo de lectura (pool agotado, BUSY...): se sigue sirviendo la instantánea anterior sin
+            // darla por revalidada, y sin ninguna se devuelve un catálogo vacío que no se guarda,
+            // así la próxima lectura vuelve a intentarlo
+            return vista != null ? vista : Snapshot.de(List.of(), -1);
+        }
+        Snapshot nueva = Snapshot.de(formulas, version);
+        actual.set(nueva);
+        return nueva;
+    }
+
+    /**
+     * Aplica a la instantánea actual una modificación hecha en la base de datos por esta instancia.
+     * La versión se conserva, así que la próxima revalidación recargará una vez para sincronizarse.
+     */
+    void aplicar(UnaryOperator<List<Formula>> cambio) {
+        actual.updateAndGet(s -> {
+            if (s == null) {
+                return null;
+            }
+            Snapshot nueva = Snapshot.de(cambio.apply(new ArrayList<>(s.formulas())), s.version());
+            return new Snapshot(nueva.formulas(), nueva.porId(), nueva.porNombre(), s.version(), s.validadaEn());
+        });
+    }
+
+    /**
+     * Descarta la caché; la siguiente lectura irá a la base de datos.
+     */
+    void invalidar() {
+        actual.set(null);
+    }
+
+    /**
+     * Clave normalizada para el índice por nombre (sin distinguir mayúsculas).
+     */
+    static String clave(String nombre) {
+        return nombre.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Métricas de uso de la caché.
+     */
+    Stats getStats() {
+        long a = aciertos.sum();
+        long c = cargas.sum();
+        return new Stats(a, c, revalidaciones.sum(), a + c == 0 ? 0 : (double) a / (a + c));
+    }
+
+    /**
+     * Métricas de la caché del catálogo: aciertos, cargas desde la base de datos y revalidaciones.
+     */
+    public record Stats(long aciertos, long cargas, long revalidaciones, double tasaAciertos) {
+
+        @Override
+        public String toString() {
+            return String.format("Catálogo de fórmulas: %d aciertos, %d cargas, %d revalidaciones (%.1f%% aciertos)",
+                    aciertos, cargas, revalidaciones, tasaAciertos * 100);
+        }
+    }
+}
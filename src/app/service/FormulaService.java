@@ -4,21 +4,82 @@ import app.Formula;
 import app.repository.FormulaRepository;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Servicio de fórmulas magistrales.
  * Se encarga de la lógica de negocio, sirviendo de puente entre la interfaz
  * de usuario y el acceso directo a la base de datos.
+ * Cada alta, edición o baja confirmada se anuncia en el EventBus.
  */
 public class FormulaService {
 
     private final FormulaRepository formulaRepository = new FormulaRepository();
 
+    // Caché del catálogo compartida por todas las ventanas; el catálogo cambia muy poco y se lee en cada pedido
+    private static final FormulaCatalogo catalogo =
+            new FormulaCatalogo(Long.getLong("pharmacyfm.formulas.ttlMs", 5000));
+
     /**
-     * Obtiene la lista completa de fórmulas registradas en el catálogo.
+     * Obtiene la lista completa de fórmulas registradas en el catálogo, ordenadas por nombre.
+     * Se sirve desde la caché en memoria; se devuelven copias para que la interfaz pueda editarlas
+     * sin alterar la instantánea compartida.
      */
     public List<Formula> getAllFormulas() {
-        return formulaRepository.findAll();
+        return catalogo.get().formulas().stream()
+                .map(FormulaService::copiar)
+                .toList();
+    }
+
+    /**
+     * Busca una fórmula del catálogo por su identificador (sin ir a la base de datos si está en caché).
+     */
+    public Optional<Formula> getFormulaById(int id) {
+        return Optional.ofNullable(catalogo.get().porId().get(id)).map(FormulaService::copiar);
+    }
+
+    /**
+     * Busca una fórmula del catálogo por su nombre, sin distinguir mayúsculas.
+     */
+    public Optional<Formula> getFormulaByNombre(String nombre) {
+        if (nombre == null || nombre.isBlank()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(catalogo.get().porNombre().get(FormulaCatalogo.clave(nombre)))
+                .map(FormulaService::copiar);
+    }
+
+    /**
+     * Búsqueda por palabras (o el comienzo de ellas) en el nombre y la descripción, por relevancia.
+     * Con el texto vacío devuelve el catálogo completo, para que un buscador vacío muestre todo.
+     */
+    public List<Formula> buscarFormulas(String texto, int limite) {
+        if (texto == null || texto.isBlank()) {
+            return getAllFormulas();
+        }
+        return formulaRepository.search(texto, limite);
+    }
+
+    /**
+     * Carga (o revalida) la caché del catálogo sin copiar nada, para que la primera ventana que lo pida
+     * no tenga que esperar a la base de datos. Se usa durante el login.
+     */
+    public static void precargarCatalogo() {
+        catalogo.get();
+    }
+
+    /**
+     * Descarta la caché del catálogo; se usa cuando otro proceso ha modificado las fórmulas.
+     */
+    public static void invalidarCatalogo() {
+        catalogo.invalidar();
+    }
+
+    /**
+     * Métricas de la caché del catálogo (aciertos, cargas y revalidaciones).
+     */
+    public static FormulaCatalogo.Stats getEstadisticasCatalogo() {
+        return catalogo.getStats();
     }
 
     /**
@@ -45,12 +106,27 @@ public class FormulaService {
             int idGenerado = formulaRepository.insert(f);
             if (idGenerado > 0) {
                 f.setId(idGenerado); // Actualizamos el objeto con el ID que le ha dado la base de datos
+                Formula nueva = copiar(f);
+                catalogo.aplicar(lista -> {
+                    lista.add(nueva);
+                    return lista;
+                });
+                EventBus.getInstance().publicar(CambioDatos.Entidad.FORMULA, CambioDatos.Tipo.CREADO, idGenerado);
                 return true;
             }
             return false;
         } else {
             // Si el ID es distinto de 0, significa que la fórmula ya existe y queremos actualizarla
-            return formulaRepository.update(f);
+            if (!formulaRepository.update(f)) {
+                return false;
+            }
+            Formula actualizada = copiar(f);
+            catalogo.aplicar(lista -> {
+                lista.replaceAll(x -> x.getId() == actualizada.getId() ? actualizada : x);
+                return lista;
+            });
+            EventBus.getInstance().publicar(CambioDatos.Entidad.FORMULA, CambioDatos.Tipo.ACTUALIZADO, f.getId());
+            return true;
         }
     }
 
@@ -58,6 +134,19 @@ public class FormulaService {
      * Elimina definitivamente una fórmula del catálogo utilizando su identificador único.
      */
     public boolean eliminarFormula(int id) {
-        return formulaRepository.delete(id);
+        if (!formulaRepository.delete(id)) {
+            return false;
+        }
+        catalogo.aplicar(lista -> {
+            lista.removeIf(x -> x.getId() == id);
+            return lista;
+        });
+        EventBus.getInstance().publicar(CambioDatos.Entidad.FORMULA, CambioDatos.Tipo.ELIMINADO, id);
+        return true;
+    }
+
+    // Copia independiente de una fórmula de la caché
+    private static Formula copiar(Formula f) {
+        return new Formula(f.getId(), f.getNombre(), f.getDescripcion(), f.getPrecio());
     }
 }
\ No newline at end of file
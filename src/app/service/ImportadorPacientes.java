@@ -0,0 +1,248 @@
+package app.service;
+
+import app.DatabaseConnection;
+import app.LectorCsv;
+import app.NuevoPaciente;
+import app.repository.PacienteRepository;
+import app.repository.UsuarioRepository;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Alta masiva de pacientes desde un CSV (p. ej. la cartera completa de una clínica).
+ *
+ * El coste está casi todo en BCrypt, que es deliberadamente lento y de un solo hilo por contraseña.
+ * Por eso las contraseñas de cada bloque se cifran en paralelo en un ForkJoinPool con un hilo por núcleo,
+ * y mientras se cifra un bloque se guarda el anterior: usuarios y fichas de paciente del bloque van
+ * con executeBatch en una sola transacción.
+ *
+ * Los emails ya registrados se cargan una vez en memoria, de modo que los duplicados (contra la base de
+ * datos o dentro del propio archivo) se detectan en la misma pasada de lectura, sin consultas por fila.
+ *
+ * Formato: primera fila de cabecera (orden libre), separador ',' o ';'.
+ *  - nombre, email, password  obligatorias
+ *  - telefono                 obligatoria: al menos 9 dígitos, como en el registro
+ *
+ * Las filas rechazadas se escriben en un informe CSV (línea, motivo, email); la contraseña nunca se copia.
+ */
+public class ImportadorPacientes {
+
+    private static final List<String> COLUMNAS_OBLIGATORIAS = List.of("nombre", "email", "password", "telefono");
+
+    private final UsuarioRepository usuarioRepository = new UsuarioRepository();
+    private final PacienteRepository pacienteRepository = new PacienteRepository();
+    private final int tamanoLote;
+    private final int hilos;
+
+    /**
+     * Avance del alta masiva; el último se devuelve como resultado.
+     */
+    public record Progreso(long leidas, long altas, long duplicados, long errores, long ms) {
+
+        public double altasPorSegundo() {
+            return ms == 0 ? 0 : altas * 1000.0 / ms;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d filas leídas, %d altas, %d duplicados, %d con errores (%.0f altas/s)",
+                    leidas, altas, duplicados, errores, altasPorSegundo());
+        }
+    }
+
+    // Fila validada pendiente de cifrar la contraseña
+    private record Fila(long linea, String nombre, String email, String telefono, String password) { }
+
+    public ImportadorPacientes() {
+        this(Integer.getInteger("pharmacyfm.altas.lote", 500),
+             Integer.getInteger("pharmacyfm.altas.hilos", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public ImportadorPacientes(int tamanoLote, int hilos) {
+        this.tamanoLote = tamanoLote;
+        this.hilos = hilos;
+    }
+
+    /**
+     * Da de alta los pacientes del archivo indicado.
+     * @param csv             Archivo de origen (UTF-8).
+     * @param informeErrores  Archivo donde se escriben las filas rechazadas (se crea aunque no haya errores).
+     * @param alAvanzar       Recibe el progreso tras cada bloque guardado; puede llamarse desde cualquier hilo.
+     * @return El progreso final.
+     * @throws IOException si no se puede leer el origen o escribir el informe, o si faltan columnas obligatorias.
+     */
+    public Progreso importar(Path csv, Path informeErrores, Consumer<Progreso> alAvanzar) throws IOException {
+        long inicio = System.nanoTime();
+        long leidas = 0;
+        long duplicados = 0;
+        long errores = 0;
+        long[] guardadas = new long[2]; // altas, filas de bloques fallidos
+
+        Set<String> emails = usuarioRepository.findAllEmails();
+        ForkJoinPool pool = new ForkJoinPool(hilos);
+
+        try (BufferedReader br = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             BufferedWriter informe = Files.newBufferedWriter(informeErrores, StandardCharsets.UTF_8)) {
+
+            LectorCsv lector = new LectorCsv(br, LectorCsv.detectarSeparador(br));
+            informe.write("linea,error,email");
+            informe.newLine();
+
+            List<String> cabecera = lector.siguiente();
+            if (cabecera == null) {
+                throw new IOException("El archivo está vacío.");
+            }
+            Map<String, Integer> columnas = new HashMap<>();
+            for (int i = 0; i < cabecera.size(); i++) {
+                // Se acepta también "teléfono" con tilde
+                columnas.put(cabecera.get(i).trim().toLowerCase(Locale.ROOT).replace('é', 'e'), i);
+            }
+            for (String obligatoria : COLUMNAS_OBLIGATORIAS) {
+                if (!columnas.containsKey(obligatoria)) {
+                    throw new IOException("Falta la columna obligatoria '" + obligatoria + "' en la cabecera.");
+                }
+            }
+
+            List<Fila> lote = new ArrayList<>(tamanoLote);
+            List<Fila> filasEnCurso = null;
+            ForkJoinTask<List<NuevoPaciente>> enCurso = null;
+            List<String> registro;
+
+            while ((registro = lector.siguiente()) != null) {
+                if (LectorCsv.esVacio(registro)) {
+                    continue;
+                }
+                leidas++;
+
+                String nombre = campo(registro, columnas, "nombre");
+                String email = campo(registro, columnas, "email");
+                String password = campo(registro, columnas, "password");
+                String telefono = campo(registro, columnas, "telefono");
+
+                String error = validar(nombre, email, password, telefono);
+                if (error != null) {
+                    errores++;
+                    escribirError(informe, lector.getLinea(), error, email);
+                    continue;
+                }
+                // add() devuelve false si el email ya estaba registrado o apareció antes en el archivo
+                if (!emails.add(email.toLowerCase(Locale.ROOT))) {
+                    duplicados++;
+                    escribirError(informe, lector.getLinea(), "Email duplicado", email);
+                    continue;
+                }
+                lote.add(new Fila(lector.getLinea(), nombre, email, telefono, password));
+
+                if (lote.size() >= tamanoLote) {
+                    // Se lanza el cifrado de este bloque y, mientras tanto, se guarda el anterior
+                    List<Fila> bloque = List.copyOf(lote);
+                    lote.clear();
+                    ForkJoinTask<List<NuevoPaciente>> siguiente = pool.submit(() -> cifrar(bloque));
+                    if (enCurso != null) {
+                        guardarLote(enCurso.join(), filasEnCurso, informe, guardadas);
+                        alAvanzar.accept(new Progreso(leidas, guardadas[0], duplicados,
+                                errores + guardadas[1], transcurrido(inicio)));
+                    }
+                    enCurso = siguiente;
+                    filasEnCurso = bloque;
+                }
+            }
+
+            if (enCurso != null) {
+                guardarLote(enCurso.join(), filasEnCurso, informe, guardadas);
+            }
+            if (!lote.isEmpty()) {
+                guardarLote(pool.submit(() -> cifrar(lote)).join(), lote, informe, guardadas);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Progreso fin = new Progreso(leidas, guardadas[0], duplicados, errores + guardadas[1], transcurrido(inicio));
+        alAvanzar.accept(fin);
+        if (guardadas[0] > 0) {
+            // Demasiadas filas para avisar una a una: las vistas recargan
+            EventBus.getInstance().publicar(CambioDatos.Entidad.PACIENTE, CambioDatos.Tipo.EXTERNO);
+        }
+        return fin;
+    }
+
+    // Cifra las contraseñas del bloque; al ejecutarse dentro del pool, el stream paralelo usa sus hilos
+    private static List<NuevoPaciente> cifrar(List<Fila> filas) {
+        return filas.parallelStream()
+                .map(f -> new NuevoPaciente(f.nombre(), f.email(), f.telefono(),
+                        BCrypt.hashpw(f.password(), BCrypt.gensalt())))
+                .toList();
+    }
+
+    /**
+     * Inserta usuarios y fichas del bloque en una única transacción.
+     * Suma a guardadas[0] las altas y a guardadas[1] las filas perdidas si la transacción falla.
+     */
+    private void guardarLote(List<NuevoPaciente> lote, List<Fila> filas, BufferedWriter informe,
+                             long[] guardadas) throws IOException {
+        try {
+            DatabaseConnection.executeWrite(conn -> {
+                conn.setAutoCommit(false);
+                int n = usuarioRepository.insertBatch(lote, conn);
+                pacienteRepository.insertBatch(lote, conn);
+                conn.commit();
+                return n;
+            });
+            guardadas[0] += lote.size();
+        } catch (SQLException e) {
+            System.err.println("Error guardando un bloque de " + lote.size() + " pacientes:");
+            e.printStackTrace();
+            for (Fila f : filas) {
+                escribirError(informe, f.linea(), "Error de base de datos: " + e.getMessage(), f.email());
+            }
+            guardadas[1] += lote.size();
+        }
+    }
+
+    // Mismas reglas que el formulario de registro; devuelve el motivo del rechazo o null si es válida
+    private static String validar(String nombre, String email, String password, String telefono) {
+        if (nombre.isEmpty() || email.isEmpty() || password.isEmpty()) {
+            return "Nombre, email y contraseña son obligatorios";
+        }
+        if (!email.contains("@")) {
+            return "Email no válido";
+        }
+        if (!telefono.matches("\\d{9,}")) {
+            return "El teléfono debe tener al menos 9 dígitos numéricos";
+        }
+        return null;
+    }
+
+    // Valor de una columna (recortado), o "" si el registro es más corto
+    private static String campo(List<String> registro, Map<String, Integer> columnas, String nombre) {
+        Integer i = columnas.get(nombre);
+        return (i == null || i >= registro.size()) ? "" : registro.get(i).trim();
+    }
+
+    private static void escribirError(BufferedWriter informe, long linea, String motivo, String email)
+            throws IOException {
+        informe.write(linea + "," + LectorCsv.escapar(motivo, ',') + "," + LectorCsv.escapar(email, ','));
+        informe.newLine();
+    }
+
+    private static long transcurrido(long inicioNanos) {
+        return (System.nanoTime() - inicioNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,293 @@
+package app.service;
+
+import app.DatabaseConnection;
+import app.EstadoPedido;
+import app.Formula;
+import app.LectorCsv;
+import app.NuevoPedido;
+import app.Paciente;
+import app.repository.PacienteRepository;
+import app.repository.PedidoRepository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Importación de pedidos históricos desde un CSV.
+ *
+ * El archivo se procesa en streaming (memoria constante) y por bloques: cada bloque de filas válidas
+ * se inserta con executeBatch dentro de su propia transacción, así un error de base de datos solo
+ * afecta a su bloque y la importación puede seguir con el resto. Pacientes y fórmulas se resuelven
+ * con mapas en memoria cargados una sola vez al empezar.
+ *
+ * Formato: primera fila de cabecera (el orden de las columnas es libre), separador ',' o ';'.
+ *  - fecha          obligatoria: yyyy-MM-dd [HH:mm[:ss]] o dd/MM/yyyy [HH:mm[:ss]]
+ *  - paciente       obligatoria: email o id del paciente
+ *  - formula        obligatoria: nombre de una fórmula del catálogo; si no existe se importa como personalizada
+ *  - cantidad       obligatoria: entero mayor que 0
+ *  - unidad, observaciones  opcionales
+ *  - estado         opcional: nombre de un EstadoPedido (por defecto "Entregado", por ser históricos)
+ *
+ * Las filas rechazadas se escriben en un informe CSV con su línea, el motivo y el contenido original.
+ */
+public class ImportadorPedidos {
+
+    private static final List<DateTimeFormatter> FORMATOS_FECHA = List.of(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"));
+    private static final List<DateTimeFormatter> FORMATOS_DIA = List.of(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+
+    private static final List<String> COLUMNAS_OBLIGATORIAS = List.of("fecha", "paciente", "formula", "cantidad");
+
+    private final PedidoRepository pedidoRepository = new PedidoRepository();
+    private final PacienteRepository pacienteRepository = new PacienteRepository();
+    private final FormulaService formulaService = new FormulaService();
+    private final int tamanoLote;
+
+    /**
+     * Avance de la importación; el último se devuelve como resultado.
+     */
+    public record Progreso(long leidas, long importadas, long errores, long ms) {
+
+        public double filasPorSegundo() {
+            return ms == 0 ? 0 : leidas * 1000.0 / ms;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d filas leídas, %d importadas, %d con errores (%.0f filas/s)",
+                    leidas, importadas, errores, filasPorSegundo());
+        }
+    }
+
+    public ImportadorPedidos() {
+        this(Integer.getInteger("pharmacyfm.importacion.lote", 5000));
+    }
+
+    public ImportadorPedidos(int tamanoLote) {
+        this.tamanoLote = tamanoLote;
+    }
+
+    /**
+     * Importa el archivo indicado.
+     * @param csv             Archivo de origen (UTF-8).
+     * @param informeErrores  Archivo donde se escriben las filas rechazadas (se crea aunque no haya errores).
+     * @param alAvanzar       Recibe el progreso tras cada bloque; puede llamarse desde cualquier hilo.
+     * @return El progreso final.
+     * @throws IOException si no se puede leer el origen o escribir el informe, o si faltan columnas obligatorias.
+     */
+    public Progreso importar(Path csv, Path informeErrores, Consumer<Progreso> alAvanzar) throws IOException {
+        long inicio = System.nanoTime();
+        long leidas = 0;
+        long importadas = 0;
+        long errores = 0;
+
+        Map<String, Integer> pacientesPorEmail = new HashMap<>();
+        Map<Integer, Integer> pacientesPorId = new HashMap<>();
+        for (Paciente p : pacienteRepository.findAll()) {
+            pacientesPorId.put(p.getId(), p.getId());
+            if (p.getEmail() != null && !p.getEmail().isBlank()) {
+                pacientesPorEmail.put(p.getEmail().trim().toLowerCase(Locale.ROOT), p.getId());
+            }
+        }
+        Map<String, Integer> formulasPorNombre = new HashMap<>();
+        for (Formula f : formulaService.getAllFormulas()) {
+            formulasPorNombre.putIfAbsent(FormulaCatalogo.clave(f.getNombre()), f.getId());
+        }
+
+        try (BufferedReader br = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             BufferedWriter informe = Files.newBufferedWriter(informeErrores, StandardCharsets.UTF_8)) {
+
+            char separador = LectorCsv.detectarSeparador(br);
+            LectorCsv lector = new LectorCsv(br, separador);
+            informe.write("linea,error,registro");
+            informe.newLine();
+
+            List<String> cabecera = lector.siguiente();
+            if (cabecera == null) {
+                throw new IOException("El archivo está vacío.");
+            }
+            Map<String, Integer> columnas = new HashMap<>();
+            for (int i = 0; i < cabecera.size(); i++) {
+                // Se acepta también "fórmula" con tilde
+                columnas.put(cabecera.get(i).trim().toLowerCase(Locale.ROOT).replace('ó', 'o'), i);
+            }
+            for (String obligatoria : COLUMNAS_OBLIGATORIAS) {
+                if (!columnas.containsKey(obligatoria)) {
+                    throw new IOException("Falta la columna obligatoria '" + obligatoria + "' en la cabecera.");
+                }
+            }
+
+            List<NuevoPedido> lote = new ArrayList<>(tamanoLote);
+            List<Long> lineasLote = new ArrayList<>(tamanoLote);
+            // Registro original de cada fila del bloque, para el informe si falla su transacción
+            List<List<String>> registrosLote = new ArrayList<>(tamanoLote);
+            List<String> registro;
+
+            while ((registro = lector.siguiente()) != null) {
+                if (LectorCsv.esVacio(registro)) {
+                    continue;
+                }
+                leidas++;
+
+                try {
+                    lote.add(convertir(registro, columnas, pacientesPorEmail, pacientesPorId, formulasPorNombre));
+                    lineasLote.add(lector.getLinea());
+                    registrosLote.add(registro);
+                } catch (IllegalArgumentException e) {
+                    errores++;
+                    escribirError(informe, lector.getLinea(), e.getMessage(), registro, separador);
+                }
+
+                if (lote.size() >= tamanoLote) {
+                    long fallidas = guardarLote(lote, lineasLote, registrosLote, informe, separador);
+                    importadas += lote.size() - fallidas;
+                    errores += fallidas;
+                    lote.clear();
+                    lineasLote.clear();
+                    registrosLote.clear();
+                    alAvanzar.accept(new Progreso(leidas, importadas, errores, transcurrido(inicio)));
+                }
+            }
+
+            if (!lote.isEmpty()) {
+                long fallidas = guardarLote(lote, lineasLote, registrosLote, informe, separador);
+                importadas += lote.size() - fallidas;
+                errores += fallidas;
+            }
+        }
+
+        Progreso fin = new Progreso(leidas, importadas, errores, transcurrido(inicio));
+        alAvanzar.accept(fin);
+        if (importadas > 0) {
+            // Demasiadas filas para avisar una a una: las vistas recargan
+            EventBus.getInstance().publicar(CambioDatos.Entidad.PEDIDO, CambioDatos.Tipo.EXTERNO);
+        }
+        return fin;
+    }
+
+    /**
+     * Inserta un bloque en su propia transacción.
+     * @return Número de filas que no se pudieron guardar (todo el bloque si la transacción falla).
+     */
+    private long guardarLote(List<NuevoPedido> lote, List<Long> lineas, List<List<String>> registros,
+                             BufferedWriter informe, char separador) throws IOException {
+        try {
+            DatabaseConnection.executeWrite(conn -> {
+                conn.setAutoCommit(false);
+                int n = pedidoRepository.insertBatch(lote, conn);
+                conn.commit();
+                return n;
+            });
+            return 0;
+        } catch (SQLException e) {
+            System.err.println("Error guardando un bloque de " + lote.size() + " pedidos importados:");
+            e.printStackTrace();
+            for (int i = 0; i < lote.size(); i++) {
+                escribirError(informe, lineas.get(i), "Error de base de datos: " + e.getMessage(),
+                        registros.get(i), separador);
+            }
+            return lote.size();
+        }
+    }
+
+    // Valida un registro y lo convierte en un pedido listo para insertar
+    private NuevoPedido convertir(List<String> registro, Map<String, Integer> columnas,
+                                  Map<String, Integer> pacientesPorEmail, Map<Integer, Integer> pacientesPorId,
+                                  Map<String, Integer> formulasPorNombre) {
+
+        long fecha = normalizarFecha(campo(registro, columnas, "fecha"));
+
+        String paciente = campo(registro, columnas, "paciente");
+        Integer idPaciente = paciente.chars().allMatch(Character::isDigit) && !paciente.isEmpty()
+                ? pacientesPorId.get(Integer.parseInt(paciente))
+                : pacientesPorEmail.get(paciente.toLowerCase(Locale.ROOT));
+        if (idPaciente == null) {
+            throw new IllegalArgumentException("Paciente desconocido: '" + paciente + "'");
+        }
+
+        String formula = campo(registro, columnas, "formula");
+        if (formula.isEmpty()) {
+            throw new IllegalArgumentException("La fórmula está vacía");
+        }
+        Integer idFormula = formulasPorNombre.get(FormulaCatalogo.clave(formula));
+
+        int cantidad;
+        try {
+            cantidad = Integer.parseInt(campo(registro, columnas, "cantidad"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cantidad no numérica: '" + campo(registro, columnas, "cantidad") + "'");
+        }
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("La cantidad debe ser mayor que 0");
+        }
+
+        // Los históricos se importan con su estado tal cual, sin pasar por las transiciones
+        String textoEstado = campo(registro, columnas, "estado");
+        EstadoPedido estado = textoEstado.isEmpty() ? EstadoPedido.ENTREGADO : EstadoPedido.deEtiqueta(textoEstado);
+
+        String unidad = campo(registro, columnas, "unidad");
+        String observaciones = campo(registro, columnas, "observaciones");
+
+        return new NuevoPedido(idPaciente, idFormula, idFormula == null ? formula : null, cantidad,
+                unidad.isEmpty() ? null : unidad, observaciones.isEmpty() ? null : observaciones,
+                fecha, estado);
+    }
+
+    // Valor de una columna (recortado), o "" si la columna no existe o el registro es más corto
+    private static String campo(List<String> registro, Map<String, Integer> columnas, String nombre) {
+        Integer i = columnas.get(nombre);
+        return (i == null || i >= registro.size()) ? "" : registro.get(i).trim();
+    }
+
+    // Instante en milisegundos; las fechas del archivo se interpretan en la hora local del equipo
+    private static long normalizarFecha(String texto) {
+        for (DateTimeFormatter f : FORMATOS_FECHA) {
+            try {
+                return LocalDateTime.parse(texto, f).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException _) {
+                // Se prueba el siguiente formato
+            }
+        }
+        for (DateTimeFormatter f : FORMATOS_DIA) {
+            try {
+                return LocalDate.parse(texto, f).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException _) {
+                // Se prueba el siguiente formato
+            }
+        }
+        throw new IllegalArgumentException("Fecha no válida: '" + texto + "'");
+    }
+
+    private static void escribirError(BufferedWriter informe, long linea, String motivo,
+                                      List<String> registro, char separador) throws IOException {
+        informe.write(linea + "," + LectorCsv.escapar(motivo, ',') + ","
+                + LectorCsv.escapar(String.join(String.valueOf(separador), registro), ','));
+        informe.newLine();
+    }
+
+    private static long transcurrido(long inicioNanos) {
+        return (System.nanoTime() - inicioNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,115 @@
+package app.service;
+
+import app.Paciente;
+import app.repository.PacienteRepository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Servicio de pacientes.
+ * Hace de puente entre la interfaz y el repositorio de pacientes y avisa
+ * por el bus de eventos de cada modificación confirmada.
+ */
+public class PacienteService {
+
+    private final PacienteRepository pacienteRepository = new PacienteRepository();
+
+    // Índice de sugerencias compartido por todas las ventanas; se mantiene con los eventos de pacientes
+    private static final DirectorioPacientes directorio = new DirectorioPacientes();
+
+    static {
+        EventBus.getInstance().suscribir(CambioDatos.Entidad.PACIENTE, PacienteService::actualizarDirectorio);
+    }
+
+    /**
+     * Lista completa de pacientes ordenada por nombre.
+     */
+    public List<Paciente> getAllPacientes() {
+        return pacienteRepository.findAll();
+    }
+
+    /**
+     * Ficha de paciente por su identificador, o null si no existe.
+     */
+    public Paciente getPacienteById(int id) {
+        return pacienteRepository.findById(id);
+    }
+
+    /**
+     * Ficha de paciente vinculada a una cuenta de usuario, o null si no tiene.
+     */
+    public Paciente getPacienteByUsuario(int idUsuario) {
+        return pacienteRepository.findByUserId(idUsuario);
+    }
+
+    /**
+     * Sugerencias mientras se escribe: pacientes cuyo nombre (alguna de sus palabras), email o teléfono
+     * empiezan por las palabras escritas, sin distinguir mayúsculas ni tildes. Se responde desde memoria
+     * y no bloquea: mientras el índice se construye devuelve una lista vacía (ver directorioListo()).
+     * @param limite Máximo de pacientes devueltos.
+     */
+    public List<Paciente> sugerirPacientes(String texto, int limite) {
+        return directorio.sugerir(texto, limite);
+    }
+
+    /**
+     * Lanza en segundo plano la construcción del índice de sugerencias, para tenerlo listo antes de
+     * teclear la primera letra. No bloquea; conviene llamarlo al abrir la pantalla que lo usa.
+     */
+    public void precargarDirectorio() {
+        directorio.cargarEnSegundoPlano();
+    }
+
+    public boolean isDirectorioCargado() {
+        return directorio.isCargado();
+    }
+
+    /**
+     * Futuro que se completa cuando el índice de sugerencias está listo (lanza su carga si hace falta),
+     * para repetir una búsqueda que se hizo antes de tiempo. Puede completarse en cualquier hilo.
+     */
+    public CompletableFuture<Void> directorioListo() {
+        return directorio.cargarEnSegundoPlano();
+    }
+
+    // Lleva al índice los cambios anunciados en el bus (también los de otros procesos). Se aplican en el
+    // hilo del directorio: consultar la base de datos o reconstruir el índice no debe frenar el bus
+    private static void actualizarDirectorio(CambioDatos cambio) {
+        directorio.enSegundoPlano(() -> {
+            switch (cambio.tipo()) {
+                case EXTERNO -> directorio.recargar();
+                case ELIMINADO -> cambio.ids().forEach(directorio::quitar);
+                default -> {
+                    PacienteRepository repositorio = new PacienteRepository();
+                    for (int id : cambio.ids()) {
+                        Paciente p = repositorio.findById(id);
+                        if (p != null) {
+                            directorio.actualizar(p);
+                        } else {
+                            directorio.quitar(id);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Guarda los datos de contacto de un paciente.
+     * @return true si la actualización fue exitosa.
+     */
+    public boolean actualizarPaciente(Paciente p) {
+        // Validación: el nombre es obligatorio en la ficha
+        if (p.getNombre() == null || p.getNombre().trim().isEmpty()) {
+            System.err.println("El nombre del paciente no puede estar vacío.");
+            return false;
+        }
+
+        boolean ok = pacienteRepository.update(p);
+        if (ok) {
+            EventBus.getInstance().publicar(CambioDatos.Entidad.PACIENTE, CambioDatos.Tipo.ACTUALIZADO, p.getId());
+        }
+        return ok;
+    }
+}
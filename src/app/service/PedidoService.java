@@ -1,18 +1,52 @@
 package app.service;
 
+import app.CambiosPedidos;
+import app.DatabaseConnection;
+import app.DatabaseConnection.SqlWork;
+import app.DemandaFormula;
+import app.EstadoPedido;
+import app.PaginaPedidos;
 import app.Pedido;
+import app.PedidoCursor;
+import app.PedidoFiltro;
+import app.ResumenPedidos;
+import app.repository.CambiosRepository;
 import app.repository.PedidoRepository;
+import app.repository.ResumenPedidosRepository;
 
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Servicio de pedidos.
  * Se encarga de la lógica de negocio para gestionar las solicitudes de fórmulas,
  * actuando como intermediario entre la interfaz y la base de datos.
+ *
+ * Las escrituras (altas y cambios de estado) pasan por una cola compartida con "group commit":
+ * las versiones *Async devuelven un futuro y las síncronas esperan a que el lote se confirme.
+ * Una vez confirmada, cada escritura se anuncia en el EventBus.
  */
 public class PedidoService {
 
+    /**
+     * Estados posibles de un pedido, en el orden de su ciclo de vida.
+     */
+    public static final List<EstadoPedido> ESTADOS = List.of(EstadoPedido.values());
+
     private final PedidoRepository pedidoRepository = new PedidoRepository();
+    private final CambiosRepository cambiosRepository = new CambiosRepository();
+    private final ResumenPedidosRepository resumenRepository = new ResumenPedidosRepository();
+
+    // Cola única para toda la aplicación: un solo hilo escritor agrupa las escrituras de todas las ventanas
+    private static final PedidoWriteQueue colaEscritura = new PedidoWriteQueue(
+            Integer.getInteger("pharmacyfm.pedidos.lote.max", 256),
+            Long.getLong("pharmacyfm.pedidos.lote.esperaMs", 2L));
 
     /**
      * Recupera el historial de pedidos de un paciente específico para su área personal.
@@ -29,20 +63,200 @@ public class PedidoService {
         return pedidoRepository.findAll();
     }
 
+    /**
+     * Lectura en streaming de todos los pedidos para exportaciones, informes o recálculos.
+     * El Stream debe cerrarse (try-with-resources) para liberar la conexión.
+     */
+    public Stream<Pedido> streamAllPedidos(int fetchSize) {
+        return pedidoRepository.streamAll(fetchSize);
+    }
+
+    /**
+     * Lectura en streaming, en orden cronológico, de los pedidos que cumplen el filtro.
+     * El Stream debe cerrarse (try-with-resources) para liberar la conexión.
+     */
+    public Stream<Pedido> streamPedidos(PedidoFiltro filtro, int fetchSize) {
+        return pedidoRepository.streamFiltered(filtro, fetchSize);
+    }
+
+    /**
+     * Búsqueda por palabras (o el comienzo de ellas) en las observaciones y en el nombre de las
+     * fórmulas personalizadas, por relevancia. Con el texto vacío devuelve una lista vacía.
+     */
+    public List<Pedido> buscarPedidos(String texto, int limite) {
+        return pedidoRepository.search(texto, limite);
+    }
+
+    /**
+     * Aplica una acción a cada pedido en memoria constante y devuelve cuántos se procesaron.
+     */
+    public long recorrerPedidos(int fetchSize, Consumer<Pedido> accion) {
+        return pedidoRepository.forEach(fetchSize, accion);
+    }
+
+    /**
+     * Número total de pedidos, para dimensionar las tablas paginadas.
+     */
+    public int contarPedidos() {
+        return pedidoRepository.countAll();
+    }
+
+    /**
+     * Número de pedidos que cumplen el filtro.
+     */
+    public int contarPedidos(PedidoFiltro filtro) {
+        return pedidoRepository.count(filtro);
+    }
+
+    /**
+     * Tramo del listado global por posición; alternativa a la paginación keyset para saltos arbitrarios.
+     */
+    public List<Pedido> getTramoPedidos(int offset, int limite, boolean ascendente) {
+        return pedidoRepository.findSlice(offset, limite, ascendente);
+    }
+
+    /**
+     * Tramo por posición del listado de los pedidos que cumplen el filtro.
+     */
+    public List<Pedido> getTramoPedidos(PedidoFiltro filtro, int offset, int limite, boolean ascendente) {
+        return pedidoRepository.findSlice(filtro, offset, limite, ascendente);
+    }
+
+    /**
+     * Página del listado global de pedidos (paginación keyset, orden fecha DESC).
+     * @param cursor     null para la primera página; si no, el cursor anterior/siguiente de otra página.
+     * @param haciaAtras true para obtener la página anterior al cursor.
+     */
+    public PaginaPedidos getPaginaPedidos(PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return pedidoRepository.findPage(cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Página de los pedidos que cumplen el filtro (paginación keyset, orden fecha DESC).
+     */
+    public PaginaPedidos getPaginaPedidos(PedidoFiltro filtro, PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return pedidoRepository.findPage(filtro, cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Página del historial de un paciente (paginación keyset, orden fecha DESC).
+     */
+    public PaginaPedidos getPaginaPedidosPaciente(int idPaciente, PedidoCursor cursor, int tamano, boolean haciaAtras) {
+        return pedidoRepository.findPageByPacienteId(idPaciente, cursor, tamano, haciaAtras);
+    }
+
+    /**
+     * Versión de cambio actual de los pedidos (-1 si no se pudo leer).
+     * Se lee antes de una carga completa para pedir después solo lo que cambie a partir de ella.
+     */
+    public long getVersionPedidos() {
+        return cambiosRepository.getVersion("pedidos");
+    }
+
+    /**
+     * Pedidos creados o modificados desde la versión indicada, para refrescar una vista sin recargarla.
+     */
+    public CambiosPedidos getCambiosPedidos(long desdeVersion) {
+        return cambios(pedidoRepository.findChangedSince(desdeVersion), desdeVersion);
+    }
+
+    /**
+     * Igual que getCambiosPedidos, pero solo para el historial de un paciente.
+     */
+    public CambiosPedidos getCambiosPedidosPaciente(int idPaciente, long desdeVersion) {
+        return cambios(pedidoRepository.findChangedSinceByPacienteId(idPaciente, desdeVersion), desdeVersion);
+    }
+
+    // La nueva versión es la mayor de las filas recibidas (o la de partida si no hubo cambios)
+    private CambiosPedidos cambios(List<Pedido> pedidos, long desdeVersion) {
+        long version = desdeVersion;
+        for (Pedido p : pedidos) {
+            version = Math.max(version, p.getVersion());
+        }
+        return new CambiosPedidos(pedidos, version);
+    }
+
+    /**
+     * Posición que ocupa un pedido en el listado global con el orden indicado (-1 si no se pudo calcular).
+     */
+    public int getPosicionPedido(Pedido pedido, boolean ascendente) {
+        return pedidoRepository.countBefore(PedidoCursor.de(pedido), ascendente);
+    }
+
+    /**
+     * Posición de un pedido dentro del listado filtrado (-1 si no se pudo calcular).
+     */
+    public int getPosicionPedido(PedidoFiltro filtro, Pedido pedido, boolean ascendente) {
+        return pedidoRepository.countBefore(filtro, PedidoCursor.de(pedido), ascendente);
+    }
+
+    /**
+     * Pedidos por estado, en total y del día de hoy, según los contadores de la base de datos.
+     * @return El resumen, o null si no se pudo leer.
+     */
+    public ResumenPedidos getResumenPedidos() {
+        return resumenRepository.find(LocalDate.now());
+    }
+
+    /**
+     * Demanda por fórmula y unidad agrupada por día, semana o mes, para planificar la producción.
+     */
+    public List<DemandaFormula> getDemanda(DemandaFormula.Periodo periodo, LocalDate desde, LocalDate hasta) {
+        return resumenRepository.findDemanda(periodo, desde, hasta);
+    }
+
+    /**
+     * Recalcula desde cero los contadores por estado y los resúmenes de demanda en una sola transacción.
+     * @return true si se reconstruyeron.
+     */
+    public boolean reconstruirResumenes() {
+        try {
+            DatabaseConnection.executeWrite(conn -> {
+                conn.setAutoCommit(false);
+                resumenRepository.reconstruir(conn);
+                conn.commit();
+                return null;
+            });
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error reconstruyendo los resúmenes de pedidos:");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Mayor id de pedido registrado; los pedidos con id superior son altas posteriores.
+     */
+    public int getUltimoIdPedido() {
+        return pedidoRepository.findMaxId();
+    }
+
     /**
      * Crea un pedido utilizando una fórmula que ya existe en el catálogo de la farmacia.
      * @return true si el pedido se registró correctamente.
      */
     public boolean crearPedidoFormulaCatalogo(int idPaciente, int idFormula,
                                                int cantidad, String unidad, String observaciones) {
+        return esperar(crearPedidoFormulaCatalogoAsync(idPaciente, idFormula, cantidad, unidad, observaciones));
+    }
+
+    /**
+     * Versión asíncrona de crearPedidoFormulaCatalogo: encola el alta y devuelve un futuro
+     * que se completa con true cuando el lote que la contiene se ha confirmado.
+     */
+    public CompletableFuture<Boolean> crearPedidoFormulaCatalogoAsync(int idPaciente, int idFormula,
+                                                                      int cantidad, String unidad, String observaciones) {
         // Validación básica: no permitimos pedidos sin cantidad
         if (cantidad <= 0) {
             System.err.println("La cantidad debe ser mayor que 0.");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         // Enviamos al repositorio el ID de la fórmula y dejamos el nombre personalizado en null
-        return pedidoRepository.insert(idPaciente, idFormula, null, cantidad, unidad, observaciones);
+        return encolar(conn -> pedidoRepository.insert(
+                idPaciente, idFormula, null, cantidad, unidad, observaciones, conn),
+                CambioDatos.Tipo.CREADO, "Error insertando pedido:");
     }
 
     /**
@@ -51,31 +265,121 @@ public class PedidoService {
      */
     public boolean crearPedidoFormulaPersonalizada(int idPaciente, String nombreFormula,
                                                      int cantidad, String unidad, String observaciones) {
+        return esperar(crearPedidoFormulaPersonalizadaAsync(idPaciente, nombreFormula, cantidad, unidad, observaciones));
+    }
+
+    /**
+     * Versión asíncrona de crearPedidoFormulaPersonalizada.
+     */
+    public CompletableFuture<Boolean> crearPedidoFormulaPersonalizadaAsync(int idPaciente, String nombreFormula,
+                                                                           int cantidad, String unidad, String observaciones) {
         // Validamos que haya una cantidad válida
         if (cantidad <= 0) {
             System.err.println("La cantidad debe ser mayor que 0.");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         // Validamos que el paciente haya descrito qué fórmula necesita
         if (nombreFormula == null || nombreFormula.trim().isEmpty()) {
             System.err.println("El nombre de la fórmula personalizada no puede estar vacío.");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         // Enviamos al repositorio el nombre de la fórmula y dejamos el ID del catálogo en null
-        return pedidoRepository.insert(idPaciente, null, nombreFormula, cantidad, unidad, observaciones);
+        return encolar(conn -> pedidoRepository.insert(
+                idPaciente, null, nombreFormula, cantidad, unidad, observaciones, conn),
+                CambioDatos.Tipo.CREADO, "Error insertando pedido:");
     }
 
     /**
      * Modifica el estado de un pedido existente (ej. de 'Pendiente' a 'En preparación').
+     * Solo se aplican las transiciones de la tabla de EstadoPedido.
+     * @return true si el pedido cambió; false si no existe o su estado actual no permite el cambio.
      */
-    public boolean actualizarEstado(int idPedido, String nuevoEstado) {
-        if (nuevoEstado == null || nuevoEstado.trim().isEmpty()) {
-            System.err.println("El estado no puede estar vacío.");
-            return false;
+    public boolean actualizarEstado(int idPedido, EstadoPedido nuevoEstado) {
+        return esperar(actualizarEstadoAsync(idPedido, nuevoEstado));
+    }
+
+    /**
+     * Versión asíncrona de actualizarEstado.
+     */
+    public CompletableFuture<Boolean> actualizarEstadoAsync(int idPedido, EstadoPedido nuevoEstado) {
+        if (nuevoEstado == null || nuevoEstado.anteriores().isEmpty()) {
+            System.err.println("Ningún pedido puede pasar al estado " + nuevoEstado + ".");
+            return CompletableFuture.completedFuture(false);
         }
 
-        return pedidoRepository.updateEstado(idPedido, nuevoEstado);
+        // El estado de partida se comprueba en el propio UPDATE, dentro de la transacción de la cola
+        Set<EstadoPedido> desde = nuevoEstado.anteriores();
+        return encolar(conn -> pedidoRepository.updateEstado(idPedido, nuevoEstado, desde, conn) ? idPedido : -1,
+                CambioDatos.Tipo.ACTUALIZADO, "Error actualizando estado del pedido:");
+    }
+
+    /**
+     * Cambia el estado de varios pedidos en una sola transacción (todos o ninguno).
+     * Los pedidos cuyo estado actual no permite el cambio se dejan como están.
+     * @return Número de pedidos actualizados, o -1 si la operación falló.
+     */
+    public int actualizarEstados(List<Integer> idsPedido, EstadoPedido nuevoEstado) {
+        return actualizarEstadosAsync(idsPedido, nuevoEstado).join();
+    }
+
+    /**
+     * Versión asíncrona de actualizarEstados. El lote entero es una sola operación de la cola,
+     * así que se confirma o se deshace completo; después se publica un único evento con los ids cambiados.
+     */
+    public CompletableFuture<Integer> actualizarEstadosAsync(List<Integer> idsPedido, EstadoPedido nuevoEstado) {
+        if (nuevoEstado == null || nuevoEstado.anteriores().isEmpty()) {
+            System.err.println("Ningún pedido puede pasar al estado " + nuevoEstado + ".");
+            return CompletableFuture.completedFuture(-1);
+        }
+        if (idsPedido.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        List<Integer> ids = List.copyOf(idsPedido);
+        Set<EstadoPedido> desde = nuevoEstado.anteriores();
+        return colaEscritura.submit(conn -> pedidoRepository.updateEstados(ids, nuevoEstado, desde, conn))
+                .thenApply(actualizados -> {
+                    if (!actualizados.isEmpty()) {
+                        EventBus.getInstance().publicar(CambioDatos.Entidad.PEDIDO, CambioDatos.Tipo.ACTUALIZADO,
+                                actualizados.stream().mapToInt(Integer::intValue).toArray());
+                    }
+                    return actualizados.size();
+                }).exceptionally(e -> {
+                    System.err.println("Error actualizando el estado de " + ids.size() + " pedidos:");
+                    (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).printStackTrace();
+                    return -1;
+                });
+    }
+
+    /**
+     * Contadores de la cola de escritura (tamaño de lote y latencia de commit).
+     */
+    public static PedidoWriteQueue.Stats getEstadisticasEscritura() {
+        return colaEscritura.getStats();
+    }
+
+    /**
+     * Encola la escritura, que devuelve el id del pedido afectado (o -1 si no afectó a ninguno).
+     * Tras el commit se publica el cambio; un error SQL se registra y el futuro se resuelve a false.
+     */
+    private CompletableFuture<Boolean> encolar(SqlWork<Integer> trabajo, CambioDatos.Tipo tipo, String mensajeError) {
+        return colaEscritura.submit(trabajo).thenApply(id -> {
+            if (id <= 0) {
+                return false;
+            }
+            EventBus.getInstance().publicar(CambioDatos.Entidad.PEDIDO, tipo, id);
+            return true;
+        }).exceptionally(e -> {
+            System.err.println(mensajeError);
+            (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).printStackTrace();
+            return false;
+        });
+    }
+
+    // Espera el resultado de una escritura encolada para las llamadas síncronas
+    private boolean esperar(CompletableFuture<Boolean> futuro) {
+        return futuro.join();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,208 @@
+package app.service;
+
+import app.DatabaseConnection;
+import app.DatabaseConnection.SqlWork;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola asíncrona de escrituras de pedidos con "group commit".
+ * Un único hilo escritor recoge las operaciones pendientes y las ejecuta juntas
+ * en una sola transacción, de modo que muchas escrituras comparten un único commit (y un único fsync).
+ *
+ * Cada operación se ejecuta dentro de su propio SAVEPOINT: si una falla, solo se deshace esa
+ * y el resto del lote se confirma igualmente. Los futuros se completan después del commit.
+ */
+public class PedidoWriteQueue {
+
+    private final BlockingQueue<Tarea<?>> cola = new LinkedBlockingQueue<>();
+    private final int maxLote;
+    private final long maxEsperaNanos;
+
+    // ---- Contadores ----
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder operaciones = new LongAdder();
+    private final AtomicInteger maxLoteVisto = new AtomicInteger();
+    private final LongAdder commitTotalNanos = new LongAdder();
+    private final AtomicLong commitMaxNanos = new AtomicLong();
+
+    // Operación pendiente junto al futuro que recibirá su resultado
+    private record Tarea<T>(SqlWork<T> trabajo, CompletableFuture<T> futuro, long encoladaEn) {
+
+        void completar(Object resultado) {
+            @SuppressWarnings("unchecked")
+            T valor = (T) resultado;
+            futuro.complete(valor);
+        }
+    }
+
+    /**
+     * @param maxLote      número máximo de operaciones por transacción.
+     * @param maxEsperaMs  tiempo máximo que la primera operación de un lote espera a que lleguen más
+     *                     antes de lanzar el commit (cota de latencia añadida).
+     */
+    public PedidoWriteQueue(int maxLote, long maxEsperaMs) {
+        this.maxLote = maxLote;
+        this.maxEsperaNanos = TimeUnit.MILLISECONDS.toNanos(maxEsperaMs);
+
+        Thread escritor = new Thread(this::bucleEscritor, "pharmacyfm-pedidos-escritor");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    /**
+     * Encola una escritura. El futuro se completa con su resultado una vez confirmado el lote,
+     * o de forma excepcional si la operación (o el commit) falla.
+     */
+    public <T> CompletableFuture<T> submit(SqlWork<T> trabajo) {
+        CompletableFuture<T> futuro = new CompletableFuture<>();
+        cola.add(new Tarea<>(trabajo, futuro, System.nanoTime()));
+        return futuro;
+    }
+
+    private void bucleEscritor() {
+        while (true) {
+            List<Tarea<?>> lote = List.of();
+            try {
+                lote = recogerLote();
+                ejecutarLote(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                // Nunca dejamos morir al hilo escritor, ni siquiera ante un Error (p. ej. un AssertionError
+                // de una operación): el lote en curso falla y el siguiente debe poder procesarse
+                System.err.println("Error inesperado en la cola de escritura de pedidos:");
+                e.printStackTrace();
+                for (Tarea<?> tarea : lote) {
+                    tarea.futuro().completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Espera a la primera operación y acumula las que lleguen hasta llenar el lote
+     * o agotar el tiempo máximo de espera de la primera.
+     */
+    private List<Tarea<?>> recogerLote() throws InterruptedException {
+        List<Tarea<?>> lote = new ArrayList<>();
+        Tarea<?> primera = cola.take();
+        lote.add(primera);
+
+        long limite = primera.encoladaEn() + maxEsperaNanos;
+        while (lote.size() < maxLote) {
+            // Primero recogemos sin esperar todo lo que ya está en cola
+            cola.drainTo(lote, maxLote - lote.size());
+            long restante = limite - System.nanoTime();
+            if (lote.size() >= maxLote || restante <= 0) {
+                break;
+            }
+            Tarea<?> siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+            if (siguiente == null) {
+                break;
+            }
+            lote.add(siguiente);
+        }
+        return lote;
+    }
+
+    private void ejecutarLote(List<Tarea<?>> lote) {
+        Object[] resultados = new Object[lote.size()];
+        Throwable[] errores = new Throwable[lote.size()];
+        long[] commitNanos = new long[1];
+
+        try {
+            DatabaseConnection.executeWrite(conn -> {
+                conn.setAutoCommit(false);
+                for (int i = 0; i < lote.size(); i++) {
+                    resultados[i] = null;
+                    errores[i] = null;
+                    Savepoint sp = conn.setSavepoint();
+                    try {
+                        resultados[i] = lote.get(i).trabajo().execute(conn);
+                        conn.releaseSavepoint(sp);
+                    } catch (SQLException e) {
+                        // Un fallo de bloqueo debe repetir el lote entero, no solo esta operación
+                        if (DatabaseConnection.isBusy(e)) {
+                            throw e;
+                        }
+                        conn.rollback(sp);
+                        conn.releaseSavepoint(sp);
+                        errores[i] = e;
+                    } catch (RuntimeException e) {
+                        conn.rollback(sp);
+                        conn.releaseSavepoint(sp);
+                        errores[i] = e;
+                    }
+                }
+                long inicioCommit = System.nanoTime();
+                conn.commit();
+                commitNanos[0] = System.nanoTime() - inicioCommit;
+                return null;
+            });
+        } catch (SQLException e) {
+            // El lote no llegó a confirmarse: fallan todas sus operaciones
+            System.err.println("Error confirmando un lote de " + lote.size() + " escrituras de pedidos:");
+            e.printStackTrace();
+            for (Tarea<?> tarea : lote) {
+                tarea.futuro().completeExceptionally(e);
+            }
+            return;
+        }
+
+        lotes.increment();
+        operaciones.add(lote.size());
+        maxLoteVisto.accumulateAndGet(lote.size(), Math::max);
+        commitTotalNanos.add(commitNanos[0]);
+        commitMaxNanos.accumulateAndGet(commitNanos[0], Math::max);
+
+        for (int i = 0; i < lote.size(); i++) {
+            if (errores[i] != null) {
+                lote.get(i).futuro().completeExceptionally(errores[i]);
+            } else {
+                lote.get(i).completar(resultados[i]);
+            }
+        }
+    }
+
+    /**
+     * Instantánea de los contadores de la cola.
+     */
+    public Stats getStats() {
+        long totalLotes = lotes.sum();
+        return new Stats(
+                totalLotes,
+                operaciones.sum(),
+                totalLotes == 0 ? 0 : (double) operaciones.sum() / totalLotes,
+                maxLoteVisto.get(),
+                totalLotes == 0 ? 0 : commitTotalNanos.sum() / 1_000_000.0 / totalLotes,
+                commitMaxNanos.get() / 1_000_000.0,
+                cola.size()
+        );
+    }
+
+    /**
+     * Contadores de la cola: tamaño de lote y latencia de commit.
+     */
+    public record Stats(long lotes, long operaciones, double tamanoMedioLote, int tamanoMaxLote,
+                        double commitMedioMs, double commitMaxMs, int pendientes) {
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Cola de pedidos: %d lotes, %d operaciones, lote medio %.1f (máx %d), commit medio %.3f ms (máx %.3f ms), pendientes %d",
+                    lotes, operaciones, tamanoMedioLote, tamanoMaxLote, commitMedioMs, commitMaxMs, pendientes);
+        }
+    }
+}